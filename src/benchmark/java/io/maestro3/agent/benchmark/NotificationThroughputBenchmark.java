@@ -0,0 +1,301 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.benchmark;
+
+import io.maestro3.agent.amqp.IntegrationChannels;
+import io.maestro3.agent.amqp.factory.CachingRabbitConfigurationFactory;
+import io.maestro3.agent.amqp.listener.ListenersManagementService;
+import io.maestro3.agent.amqp.model.AmqpRegionStatistic;
+import io.maestro3.agent.amqp.router.AmqpRoutingService;
+import io.maestro3.agent.amqp.tracker.AmqpMessageTracker;
+import io.maestro3.agent.amqp.tracker.BrokerHealthProber;
+import io.maestro3.agent.model.base.BaseAmqpRegion;
+import io.maestro3.agent.model.base.PrivateCloudType;
+import io.maestro3.agent.model.base.RabbitNotificationConfig;
+import io.maestro3.agent.model.base.ShapeConfig;
+import org.apache.qpid.server.SystemLauncher;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.MessageChannel;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end notification throughput of one agent: starts an in-process Qpid broker speaking AMQP 0-9-1,
+ * wires the real listeners service and rabbit configuration factory to it, publishes synthetic Nova and Cinder
+ * notifications and reports sustained throughput, publish-to-channel latency percentiles and the threads the
+ * listeners started for every listener setting.
+ * <p>
+ * {@code mvn -Pbenchmark test-compile exec:java -Dbenchmark.messages=50000 -Dbenchmark.port=5699}
+ */
+public class NotificationThroughputBenchmark {
+
+    private static final String HOST = "localhost";
+    private static final String USER = "guest";
+    private static final String VHOST = "default";
+    private static final String ROUTING_KEY = "notifications.info";
+    private static final String SENT_NANOS_HEADER = "benchmark_sent_nanos";
+    private static final String NOVA_EXCHANGE = "nova";
+    private static final String CINDER_EXCHANGE = "cinder";
+
+    private static final List<Scenario> SCENARIOS = Arrays.asList(
+        new Scenario(false, 1, 1, 1),
+        new Scenario(false, 4, 50, 1),
+        new Scenario(false, 4, 200, 50),
+        new Scenario(true, 1, 50, 1),
+        new Scenario(true, 4, 200, 1)
+    );
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.getInteger("benchmark.port", 5699);
+        int messages = Integer.getInteger("benchmark.messages", 20000);
+
+        SystemLauncher broker = startBroker(port);
+        try {
+            System.out.printf("%-13s %5s %8s %6s %10s %8s %8s %8s %8s %8s%n", "listeners", "cons", "prefetch",
+                "batch", "msg/s", "p50 ms", "p95 ms", "p99 ms", "threads", "channels");
+            for (Scenario scenario : SCENARIOS) {
+                Result result = run(scenario, port, messages);
+                System.out.printf("%-13s %5d %8d %6d %10.0f %8.2f %8.2f %8.2f %8d %8d%n",
+                    scenario.consolidated ? "consolidated" : "per-queue", scenario.consumers, scenario.prefetch,
+                    scenario.batch, result.throughput, result.p50Millis, result.p95Millis, result.p99Millis,
+                    result.listenerThreads, result.consumerChannels);
+            }
+        } finally {
+            broker.shutdown();
+        }
+    }
+
+    private static SystemLauncher startBroker(int port) throws Exception {
+        Map<String, Object> context = new HashMap<>();
+        context.put("qpid.amqp_port", port);
+        context.put("qpid.work_dir", Files.createTempDirectory("benchmark-broker").toString());
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("type", "Memory");
+        attributes.put("initialConfigurationLocation",
+            NotificationThroughputBenchmark.class.getResource("/benchmark-broker.json").toExternalForm());
+        attributes.put("startupLoggedToSystemOut", false);
+        attributes.put("context", context);
+
+        SystemLauncher launcher = new SystemLauncher();
+        launcher.startup(attributes);
+        return launcher;
+    }
+
+    private static Result run(Scenario scenario, int port, int messages) throws Exception {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        String novaQueue = "nova.notifications." + suffix;
+        String cinderQueue = "cinder.notifications." + suffix;
+
+        long[] latencies = new long[messages];
+        AtomicInteger received = new AtomicInteger();
+        AtomicLong lastReceived = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(messages);
+        DirectChannel osChannel = new DirectChannel();
+        osChannel.subscribe(message -> {
+            long now = System.nanoTime();
+            Object sent = message.getHeaders().get(SENT_NANOS_HEADER);
+            int index = received.getAndIncrement();
+            if (sent instanceof Number && index < latencies.length) {
+                latencies[index] = now - ((Number) sent).longValue();
+            }
+            lastReceived.set(now);
+            done.countDown();
+        });
+
+        CachingConnectionFactory publisherConnection = new CachingConnectionFactory(HOST, port);
+        publisherConnection.setUsername(USER);
+        publisherConnection.setPassword(USER);
+        publisherConnection.setVirtualHost(VHOST);
+        RabbitAdmin admin = new RabbitAdmin(publisherConnection);
+        admin.declareExchange(new DirectExchange(NOVA_EXCHANGE, true, false));
+        admin.declareExchange(new DirectExchange(CINDER_EXCHANGE, true, false));
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        try (AnnotationConfigApplicationContext context = agentContext(scenario, osChannel)) {
+            ListenersManagementService listeners = context.getBean(ListenersManagementService.class);
+            int threadsBefore = threads.getThreadCount();
+            listeners.listenToNotifications(region(scenario, port, novaQueue, cinderQueue));
+            listeners.startListeners();
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (!listeners.areListenersRunning() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Thread.sleep(500); // let the consumers subscribe
+            int listenerThreads = threads.getThreadCount() - threadsBefore;
+
+            RabbitTemplate publisher = new RabbitTemplate(publisherConnection);
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                boolean nova = i % 2 == 0;
+                MessageProperties properties = new MessageProperties();
+                properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+                properties.setHeader(SENT_NANOS_HEADER, System.nanoTime());
+                byte[] body = (nova ? novaNotification(i) : cinderNotification(i)).getBytes(StandardCharsets.UTF_8);
+                publisher.send(nova ? NOVA_EXCHANGE : CINDER_EXCHANGE, ROUTING_KEY,
+                    new org.springframework.amqp.core.Message(body, properties));
+            }
+            if (!done.await(5, TimeUnit.MINUTES)) {
+                System.out.printf("timed out, %d of %d notifications received%n", received.get(), messages);
+            }
+            double seconds = (lastReceived.get() - start) / 1e9;
+
+            AmqpRegionStatistic statistic = context.getBean(AmqpMessageTracker.class).collectStatistic(Scenario.REGION_ID);
+            listeners.stopListeners();
+            ((CachingConnectionFactory) context.getBean(CachingRabbitConfigurationFactory.class)
+                .createConnectionFactory(HOST, port, USER, USER, VHOST)).destroy();
+
+            int count = Math.min(received.get(), latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return new Result(count / seconds, percentile(sorted, 0.50), percentile(sorted, 0.95),
+                percentile(sorted, 0.99), listenerThreads, statistic.getConsumerChannels());
+        } finally {
+            admin.deleteQueue(novaQueue);
+            admin.deleteQueue(cinderQueue);
+            publisherConnection.destroy();
+        }
+    }
+
+    private static AnnotationConfigApplicationContext agentContext(Scenario scenario, MessageChannel osChannel) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("notification.topics", ROUTING_KEY);
+        properties.put("notification.queue.name", "notifications");
+        properties.put("private.agent.amqp.listeners.consolidated", scenario.consolidated);
+        properties.put("private.agent.amqp.retry.enabled", false);
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.getBeanFactory().setConversionService(new DefaultConversionService());
+        context.registerBean(IntegrationChannels.Inbound.OS_BYTES, MessageChannel.class, () -> osChannel);
+        context.register(AmqpRoutingService.class, BrokerHealthProber.class, AmqpMessageTracker.class,
+            CachingRabbitConfigurationFactory.class, ListenersManagementService.class);
+        context.refresh();
+        return context;
+    }
+
+    private static BenchmarkRegion region(Scenario scenario, int port, String novaQueue, String cinderQueue) {
+        RabbitNotificationConfig config = new RabbitNotificationConfig();
+        config.setRabbitHost(HOST);
+        config.setRabbitPort(port);
+        config.setRabbitUsername(USER);
+        config.setRabbitPassword(USER);
+        config.setRabbitVirtHost(VHOST);
+        config.setShutdownTimeoutMillis(1000);
+        config.setMinConcurrentConsumers(scenario.consumers);
+        config.setMaxConcurrentConsumers(scenario.consumers);
+        config.setConsumersPerQueue(scenario.consumers);
+        config.setPrefetchCount(scenario.prefetch);
+        config.setBatchSize(scenario.batch);
+        Map<String, List<String>> queueMapping = new HashMap<>();
+        queueMapping.put(NOVA_EXCHANGE, Collections.singletonList(novaQueue));
+        queueMapping.put(CINDER_EXCHANGE, Collections.singletonList(cinderQueue));
+        config.setQueueMapping(queueMapping);
+
+        BenchmarkRegion region = new BenchmarkRegion();
+        region.setId(Scenario.REGION_ID);
+        region.setRegionAlias(Scenario.REGION_ID);
+        region.setRabbitNotificationConfig(config);
+        return region;
+    }
+
+    private static String novaNotification(int i) {
+        return "{\"event_type\":\"compute.instance.update\",\"message_id\":\"" + UUID.randomUUID() + "\","
+            + "\"publisher_id\":\"compute.benchmark\",\"priority\":\"INFO\",\"timestamp\":\"2020-01-01 00:00:00.000000\","
+            + "\"payload\":{\"tenant_id\":\"tenant-" + (i % 50) + "\",\"instance_id\":\"instance-" + (i % 1000) + "\","
+            + "\"state\":\"active\",\"old_state\":\"building\",\"memory_mb\":2048,\"vcpus\":2,"
+            + "\"image_meta\":{\"os_type\":\"linux\",\"min_disk\":\"0\"}}}";
+    }
+
+    private static String cinderNotification(int i) {
+        return "{\"event_type\":\"volume.update.end\",\"message_id\":\"" + UUID.randomUUID() + "\","
+            + "\"publisher_id\":\"volume.benchmark\",\"priority\":\"INFO\",\"timestamp\":\"2020-01-01 00:00:00.000000\","
+            + "\"payload\":{\"tenant_id\":\"tenant-" + (i % 50) + "\",\"volume_id\":\"volume-" + (i % 1000) + "\","
+            + "\"status\":\"available\",\"size\":10,\"volume_type\":\"standard\"}}";
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percentile) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static final class BenchmarkRegion extends BaseAmqpRegion<ShapeConfig> {
+        private BenchmarkRegion() {
+            super(PrivateCloudType.OPEN_STACK);
+        }
+    }
+
+    private static final class Scenario {
+        private static final String REGION_ID = "benchmark-region";
+
+        private final boolean consolidated;
+        private final int consumers;
+        private final int prefetch;
+        private final int batch;
+
+        private Scenario(boolean consolidated, int consumers, int prefetch, int batch) {
+            this.consolidated = consolidated;
+            this.consumers = consumers;
+            this.prefetch = prefetch;
+            this.batch = batch;
+        }
+    }
+
+    private static final class Result {
+        private final double throughput;
+        private final double p50Millis;
+        private final double p95Millis;
+        private final double p99Millis;
+        private final int listenerThreads;
+        private final int consumerChannels;
+
+        private Result(double throughput, double p50Millis, double p95Millis, double p99Millis,
+                       int listenerThreads, int consumerChannels) {
+            this.throughput = throughput;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.p99Millis = p99Millis;
+            this.listenerThreads = listenerThreads;
+            this.consumerChannels = consumerChannels;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.benchmark;
+
+import io.maestro3.agent.amqp.RegionHeaderMapper;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.AmqpHeaders;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Allocated bytes and time per inbound message of the default and the whitelisted region header mapper.
+ * <p>
+ * {@code mvn -Pbenchmark compile exec:java -Dexec.mainClass=io.maestro3.agent.benchmark.RegionHeaderMapperBenchmark}
+ */
+public class RegionHeaderMapperBenchmark {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    public static void main(String[] args) {
+        MessageProperties properties = notificationProperties();
+        RegionHeaderMapper defaultMapper = new RegionHeaderMapper("benchmark-region");
+        RegionHeaderMapper leanMapper = new RegionHeaderMapper("benchmark-region",
+            Arrays.asList(AmqpHeaders.MESSAGE_ID, AmqpHeaders.CONSUMER_QUEUE, "x-retry-count"));
+
+        measure("default", defaultMapper, properties, WARMUP);
+        measure("lean", leanMapper, properties, WARMUP);
+        System.out.printf("%-8s %12s %12s%n", "mapper", "bytes/msg", "ns/msg");
+        measure("default", defaultMapper, properties, ITERATIONS).print();
+        measure("lean", leanMapper, properties, ITERATIONS).print();
+    }
+
+    private static Measurement measure(String name, RegionHeaderMapper mapper, MessageProperties properties,
+                                       int iterations) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long sink = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Map<String, Object> headers = mapper.toHeadersFromRequest(properties);
+            sink += headers.size();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        if (sink == 0) {
+            System.out.println("no headers mapped");
+        }
+        return new Measurement(name, (double) allocated / iterations, (double) elapsed / iterations);
+    }
+
+    private static MessageProperties notificationProperties() {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding("utf-8");
+        properties.setMessageId("3f1c2a8e-6a53-4a55-b6c1-5d0f1f3e2a41");
+        properties.setDeliveryTag(42);
+        properties.setRedelivered(false);
+        properties.setReceivedExchange("nova");
+        properties.setReceivedRoutingKey("notifications.info");
+        properties.setConsumerQueue("nova.notifications");
+        properties.setConsumerTag("amq.ctag-benchmark");
+        properties.setPriority(0);
+        properties.setHeader("x-retry-count", 1);
+        properties.setHeader("x-failure-reason", "");
+        properties.setHeader("oslo.version", "2.0");
+        return properties;
+    }
+
+    private static final class Measurement {
+        private final String name;
+        private final double bytesPerMessage;
+        private final double nanosPerMessage;
+
+        private Measurement(String name, double bytesPerMessage, double nanosPerMessage) {
+            this.name = name;
+            this.bytesPerMessage = bytesPerMessage;
+            this.nanosPerMessage = nanosPerMessage;
+        }
+
+        private void print() {
+            System.out.printf("%-8s %12.1f %12.1f%n", name, bytesPerMessage, nanosPerMessage);
+        }
+    }
+}
@@ -31,6 +31,7 @@ public interface IntegrationChannels {
         String OS_BYTES = "in.open_stack.bytes.channel";
         String OS_NOTIFICATIONS = "in.open_stack.notifications.channel";
         String OS_NOTIFICATIONS_ENCODED = "in.open_stack.notifications.encoded.channel";
+        String OS_NOTIFICATIONS_DECODED = "in.open_stack.notifications.decoded.channel";
     }
 
     interface Outbound {
@@ -17,21 +17,57 @@
 
 package io.maestro3.agent.amqp;
 
+import io.maestro3.agent.amqp.retry.NotificationRetryTopology;
 import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.integration.amqp.support.AmqpHeaderMapper;
 import org.springframework.integration.amqp.support.DefaultAmqpHeaderMapper;
 import org.springframework.messaging.MessageHeaders;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
+/**
+ * Inbound mapper which adds the region id to the headers. By default all AMQP properties and user headers are
+ * mapped. With a header whitelist only the listed headers are read, each with an accessor resolved once at
+ * construction, into a map presized for them, so a message costs one small map and no pattern matching.
+ * The retry count header is always mapped, the de-duplication filter lets retried notifications through.
+ */
 public class RegionHeaderMapper implements AmqpHeaderMapper {
 
     private final AmqpHeaderMapper headerMapper = DefaultAmqpHeaderMapper.inboundMapper();
 
     private final String regionId;
+    private final String[] leanHeaderNames;
+    private final Function<MessageProperties, Object>[] leanHeaderReaders;
+    private final int leanMapCapacity;
 
     public RegionHeaderMapper(String regionId) {
+        this(regionId, null);
+    }
+
+    /**
+     * @param headerWhitelist headers to map, AMQP properties by their {@link AmqpHeaders} names, user headers by
+     *                        their names; null or empty to map all headers
+     */
+    @SuppressWarnings("unchecked")
+    public RegionHeaderMapper(String regionId, Collection<String> headerWhitelist) {
         this.regionId = regionId;
+        if (headerWhitelist == null || headerWhitelist.isEmpty()) {
+            this.leanHeaderNames = null;
+            this.leanHeaderReaders = null;
+            this.leanMapCapacity = 0;
+            return;
+        }
+        this.leanHeaderNames = headerWhitelist.toArray(new String[0]);
+        this.leanHeaderReaders = new Function[leanHeaderNames.length];
+        for (int i = 0; i < leanHeaderNames.length; i++) {
+            leanHeaderReaders[i] = reader(leanHeaderNames[i]);
+        }
+        // region and retry count headers included, no resize below the default load factor
+        this.leanMapCapacity = (int) ((leanHeaderNames.length + 2) / 0.75f) + 1;
     }
 
     @Override
@@ -46,6 +82,9 @@ public class RegionHeaderMapper implements AmqpHeaderMapper {
 
     @Override
     public Map<String, Object> toHeadersFromRequest(MessageProperties messageProperties) {
+        if (leanHeaderNames != null) {
+            return leanHeaders(messageProperties);
+        }
         Map<String, Object> headers = headerMapper.toHeadersFromRequest(messageProperties);
         headers.put(PrivateAgentAmqpConstants.REGION_ID, regionId);
         return headers;
@@ -55,4 +94,51 @@ public class RegionHeaderMapper implements AmqpHeaderMapper {
     public Map<String, Object> toHeadersFromReply(MessageProperties messageProperties) {
         return headerMapper.toHeadersFromReply(messageProperties);
     }
+
+    private Map<String, Object> leanHeaders(MessageProperties messageProperties) {
+        Map<String, Object> headers = new HashMap<>(leanMapCapacity);
+        headers.put(PrivateAgentAmqpConstants.REGION_ID, regionId);
+        Object retryCount = messageProperties.getHeaders().get(NotificationRetryTopology.RETRY_COUNT_HEADER);
+        if (retryCount != null) {
+            headers.put(NotificationRetryTopology.RETRY_COUNT_HEADER, retryCount);
+        }
+        for (int i = 0; i < leanHeaderNames.length; i++) {
+            Object value = leanHeaderReaders[i].apply(messageProperties);
+            if (value != null) {
+                headers.put(leanHeaderNames[i], value);
+            }
+        }
+        return headers;
+    }
+
+    private static Function<MessageProperties, Object> reader(String header) {
+        switch (header) {
+            case AmqpHeaders.MESSAGE_ID:
+                return MessageProperties::getMessageId;
+            case AmqpHeaders.CORRELATION_ID:
+                return MessageProperties::getCorrelationId;
+            case AmqpHeaders.CONSUMER_QUEUE:
+                return MessageProperties::getConsumerQueue;
+            case AmqpHeaders.CONSUMER_TAG:
+                return MessageProperties::getConsumerTag;
+            case AmqpHeaders.RECEIVED_EXCHANGE:
+                return MessageProperties::getReceivedExchange;
+            case AmqpHeaders.RECEIVED_ROUTING_KEY:
+                return MessageProperties::getReceivedRoutingKey;
+            case AmqpHeaders.DELIVERY_TAG:
+                return MessageProperties::getDeliveryTag;
+            case AmqpHeaders.REDELIVERED:
+                return MessageProperties::getRedelivered;
+            case AmqpHeaders.TIMESTAMP:
+                return MessageProperties::getTimestamp;
+            case AmqpHeaders.APP_ID:
+                return MessageProperties::getAppId;
+            case AmqpHeaders.TYPE:
+                return MessageProperties::getType;
+            case MessageHeaders.CONTENT_TYPE:
+                return MessageProperties::getContentType;
+            default:
+                return properties -> properties.getHeaders().get(header);
+        }
+    }
 }
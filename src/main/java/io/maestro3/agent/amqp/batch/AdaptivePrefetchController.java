@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resizes the consumer batch of a listener container by the observed per-message processing latency.
+ * <p>
+ * The batch grows twice while full batches are processed within half of the target time and shrinks twice
+ * when a batch takes longer than the target, the adjustment happens at most once per interval.
+ * The batch size is applied by the running consumers immediately. The prefetch is not changed, the container
+ * sets the QoS once per channel, so the container starts with the prefetch of the largest batch and the batch
+ * grows up to half of it.
+ */
+public class AdaptivePrefetchController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptivePrefetchController.class);
+
+    private static final double EWMA_ALPHA = 0.2;
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final String regionId;
+    private final SimpleMessageListenerContainer container;
+    private final int maxBatchSize;
+    private final long targetBatchNanos;
+
+    private int batchSize;
+    private boolean fullBatchSeen;
+    private double messageLatencyNanos = -1;
+    private long lastAdjustNanos = System.nanoTime();
+
+    public AdaptivePrefetchController(String regionId, SimpleMessageListenerContainer container,
+                                      int initialBatchSize, int prefetchCount, long targetBatchMillis) {
+        Assert.notNull(container, "container can't be null.");
+        Assert.isTrue(initialBatchSize > 0, "initialBatchSize must be positive.");
+        Assert.isTrue(targetBatchMillis > 0, "targetBatchMillis must be positive.");
+        this.regionId = regionId;
+        this.container = container;
+        this.batchSize = initialBatchSize;
+        this.maxBatchSize = Math.max(initialBatchSize, prefetchCount / 2);
+        this.targetBatchNanos = TimeUnit.MILLISECONDS.toNanos(targetBatchMillis);
+    }
+
+    public synchronized void onBatch(int size, long durationNanos) {
+        if (size <= 0) {
+            return;
+        }
+        double latency = (double) durationNanos / size;
+        messageLatencyNanos = messageLatencyNanos < 0
+            ? latency
+            : EWMA_ALPHA * latency + (1 - EWMA_ALPHA) * messageLatencyNanos;
+        fullBatchSeen |= size >= batchSize;
+
+        long now = System.nanoTime();
+        if (now - lastAdjustNanos < ADJUST_INTERVAL_NANOS) {
+            return;
+        }
+        lastAdjustNanos = now;
+        double expectedBatchNanos = messageLatencyNanos * batchSize;
+        int next = batchSize;
+        if (expectedBatchNanos > targetBatchNanos) {
+            next = Math.max(1, batchSize / 2);
+        } else if (fullBatchSeen && expectedBatchNanos < targetBatchNanos / 2.0) {
+            next = Math.min(maxBatchSize, batchSize * 2);
+        }
+        fullBatchSeen = false;
+        if (next != batchSize) {
+            LOG.info("Region {}: consumer batch {} -> {}, {} ms per message", regionId, batchSize, next,
+                String.format("%.3f", messageLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1)));
+            batchSize = next;
+            container.setBatchSize(next);
+        }
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+}
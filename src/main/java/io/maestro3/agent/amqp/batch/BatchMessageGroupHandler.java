@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.batch;
+
+import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Turns a consumer batch received as one message of payloads into a message group: every payload is sent with
+ * its own headers and the common correlation id, sequence number and sequence size, so the downstream flow
+ * keeps receiving the original payloads and can aggregate the group when it needs the whole batch.
+ * <p>
+ * A failed message does not stop the batch: the other messages are processed and the failed ones are reported
+ * by a {@link NotificationBatchException}, so the error channel retries only them.
+ */
+public class BatchMessageGroupHandler implements MessageHandler {
+
+    private final MessageChannel outputChannel;
+    private final AdaptivePrefetchController prefetchController;
+
+    public BatchMessageGroupHandler(MessageChannel outputChannel, AdaptivePrefetchController prefetchController) {
+        Assert.notNull(outputChannel, "outputChannel can't be null.");
+        this.outputChannel = outputChannel;
+        this.prefetchController = prefetchController;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void handleMessage(Message<?> message) {
+        if (!(message.getPayload() instanceof List)) {
+            send(message);
+            return;
+        }
+        List<?> payloads = (List<?>) message.getPayload();
+        List<Map<String, Object>> headers =
+            (List<Map<String, Object>>) message.getHeaders().get(AmqpInboundChannelAdapter.CONSOLIDATED_HEADERS);
+        String correlationId = UUID.randomUUID().toString();
+        List<Integer> failedIndexes = new ArrayList<>();
+        RuntimeException failure = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < payloads.size(); i++) {
+            MessageBuilder<?> builder = MessageBuilder.withPayload(payloads.get(i));
+            if (headers != null && i < headers.size()) {
+                builder.copyHeaders(headers.get(i));
+            }
+            try {
+                send(builder
+                    .setCorrelationId(correlationId)
+                    .setSequenceNumber(i + 1)
+                    .setSequenceSize(payloads.size())
+                    .build());
+            } catch (RuntimeException e) {
+                failedIndexes.add(i);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (prefetchController != null) {
+            prefetchController.onBatch(payloads.size(), System.nanoTime() - start);
+        }
+        if (failure != null) {
+            throw new NotificationBatchException(message, failedIndexes, failure);
+        }
+    }
+
+    private void send(Message<?> message) {
+        if (!outputChannel.send(message)) {
+            throw new MessageDeliveryException(message, "Failed to send message to " + outputChannel);
+        }
+    }
+}
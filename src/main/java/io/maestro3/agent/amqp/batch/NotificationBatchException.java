@@ -0,0 +1,45 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.batch;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown after a consumer batch was processed when some of its messages failed, the other messages of the batch
+ * were processed and must not be processed again.
+ */
+public class NotificationBatchException extends MessagingException {
+
+    private final List<Integer> failedIndexes;
+
+    public NotificationBatchException(Message<?> batch, List<Integer> failedIndexes, Throwable cause) {
+        super(batch, failedIndexes.size() + " messages of the batch failed", cause);
+        this.failedIndexes = Collections.unmodifiableList(failedIndexes);
+    }
+
+    /**
+     * Positions of the failed messages in the consumer batch.
+     */
+    public List<Integer> getFailedIndexes() {
+        return failedIndexes;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.decode;
+
+import io.maestro3.agent.amqp.model.NotificationEvent;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+
+/**
+ * Decodes raw notification bodies into {@link NotificationEvent}s keeping the message headers.
+ */
+public class StreamingDecodeHandler implements MessageHandler {
+
+    private final StreamingNotificationDecoder decoder;
+    private final MessageChannel outputChannel;
+
+    public StreamingDecodeHandler(StreamingNotificationDecoder decoder, MessageChannel outputChannel) {
+        Assert.notNull(decoder, "decoder can't be null.");
+        Assert.notNull(outputChannel, "outputChannel can't be null.");
+        this.decoder = decoder;
+        this.outputChannel = outputChannel;
+    }
+
+    @Override
+    public void handleMessage(Message<?> message) {
+        Object payload = message.getPayload();
+        NotificationEvent event;
+        try {
+            if (payload instanceof byte[]) {
+                event = decoder.decode((byte[]) payload);
+            } else if (payload instanceof String) {
+                event = decoder.decode((String) payload);
+            } else {
+                throw new MessageHandlingException(message, "Unsupported notification payload " + payload.getClass());
+            }
+        } catch (IOException e) {
+            throw new MessageHandlingException(message, "Failed to decode notification", e);
+        }
+        Message<NotificationEvent> decoded = MessageBuilder.withPayload(event)
+            .copyHeaders(message.getHeaders())
+            .build();
+        if (!outputChannel.send(decoded)) {
+            throw new MessageDeliveryException(decoded, "Failed to send message to " + outputChannel);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.decode;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.maestro3.agent.amqp.model.NotificationEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a notification body with the Jackson streaming parser straight from the (possibly gzip or zlib
+ * compressed) bytes. Only the fields of {@link NotificationEvent} are read, other values are skipped
+ * without building strings or trees. The oslo messaging v2 envelope, where the notification is a JSON
+ * string in {@code oslo.message}, is parsed from the characters of that value.
+ * <p>
+ * {@link #readKey} reads only the payload and stops at the resource id, for the callers which only
+ * route the notification.
+ */
+public class StreamingNotificationDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String OSLO_MESSAGE = "oslo.message";
+    private static final String PAYLOAD = "payload";
+    private static final String NOVA_OBJECT_DATA = "nova_object.data";
+
+    public NotificationEvent decode(byte[] body) throws IOException {
+        NotificationEvent event = new NotificationEvent();
+        read(body, event, false);
+        return event;
+    }
+
+    public NotificationEvent decode(String body) throws IOException {
+        NotificationEvent event = new NotificationEvent();
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            readEnvelope(parser, event, false);
+        }
+        return event;
+    }
+
+    /**
+     * @return id of the resource the notification is about, the tenant id if it has none
+     */
+    public String readKey(byte[] body) throws IOException {
+        NotificationEvent event = new NotificationEvent();
+        read(body, event, true);
+        return key(event);
+    }
+
+    public String readKey(String body) throws IOException {
+        NotificationEvent event = new NotificationEvent();
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            readEnvelope(parser, event, true);
+        }
+        return key(event);
+    }
+
+    private void read(byte[] body, NotificationEvent event, boolean keyOnly) throws IOException {
+        if (isGzip(body)) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+                 JsonParser parser = JSON_FACTORY.createParser(in)) {
+                readEnvelope(parser, event, keyOnly);
+            }
+        } else if (isZlib(body)) {
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body));
+                 JsonParser parser = JSON_FACTORY.createParser(in)) {
+                readEnvelope(parser, event, keyOnly);
+            }
+        } else {
+            try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+                readEnvelope(parser, event, keyOnly);
+            }
+        }
+    }
+
+    private static String key(NotificationEvent event) {
+        return event.getResourceId() != null ? event.getResourceId() : event.getTenantId();
+    }
+
+    /**
+     * @return {@code true} if the key is read and {@code keyOnly} parsing stops
+     */
+    private boolean readEnvelope(JsonParser parser, NotificationEvent event, boolean keyOnly) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Notification is not a JSON object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (keyOnly && !OSLO_MESSAGE.equals(field) && !PAYLOAD.equals(field)) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case OSLO_MESSAGE:
+                    if (value == JsonToken.VALUE_STRING) {
+                        try (JsonParser message = JSON_FACTORY.createParser(
+                            parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength())) {
+                            if (readEnvelope(message, event, keyOnly)) {
+                                return true;
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "event_type":
+                    event.setEventType(text(parser, value));
+                    break;
+                case "message_id":
+                    event.setMessageId(text(parser, value));
+                    break;
+                case "publisher_id":
+                    event.setPublisherId(text(parser, value));
+                    break;
+                case "timestamp":
+                    event.setTimestamp(text(parser, value));
+                    break;
+                case "priority":
+                    event.setPriority(text(parser, value));
+                    break;
+                case PAYLOAD:
+                    if (value == JsonToken.START_OBJECT) {
+                        if (readPayload(parser, event, keyOnly)) {
+                            return true;
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return false;
+    }
+
+    private boolean readPayload(JsonParser parser, NotificationEvent event, boolean keyOnly) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case NOVA_OBJECT_DATA:
+                    // versioned notifications keep the fields one level deeper
+                    if (value == JsonToken.START_OBJECT) {
+                        if (readPayload(parser, event, keyOnly)) {
+                            return true;
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "tenant_id":
+                case "project_id":
+                    if (event.getTenantId() == null) {
+                        event.setTenantId(text(parser, value));
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "instance_id":
+                case "volume_id":
+                case "snapshot_id":
+                case "resource_id":
+                case "uuid":
+                    if (event.getResourceId() == null) {
+                        event.setResourceId(text(parser, value));
+                        if (keyOnly && event.getResourceId() != null) {
+                            return true;
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "state":
+                case "status":
+                    if (event.getState() == null) {
+                        event.setState(text(parser, value));
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "old_state":
+                    event.setOldState(text(parser, value));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return false;
+    }
+
+    private static String text(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isScalarValue()) {
+            return value == JsonToken.VALUE_NULL ? null : parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static boolean isGzip(byte[] body) {
+        return body.length > 2 && (body[0] & 0xff) == 0x1f && (body[1] & 0xff) == 0x8b;
+    }
+
+    private static boolean isZlib(byte[] body) {
+        return body.length > 2 && (body[0] & 0x0f) == 8 && (((body[0] & 0xff) << 8) | (body[1] & 0xff)) % 31 == 0;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.dedup;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.maestro3.agent.amqp.PrivateAgentAmqpConstants;
+import io.maestro3.agent.amqp.retry.NotificationRetryTopology;
+import io.maestro3.agent.amqp.tracker.IAmqpMessageTracker;
+import org.springframework.integration.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Drops notifications already received by the region during the dedup window. A notification is identified by
+ * the AMQP message id and otherwise by the hash of its raw body, which is the same for a broker redelivery and
+ * for an oslo re-publish of the same envelope.
+ * <p>
+ * A notification counts as received once the output channel has processed it: the id of a failed notification
+ * is forgotten, so its redelivery goes through, and notifications coming back from a retry queue are never
+ * filtered.
+ */
+public class MessageDeduplicationFilter implements MessageHandler {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final String NO_REGION = "";
+
+    private final MessageChannel outputChannel;
+    private final IAmqpMessageTracker messageTracker;
+    private final long windowMillis;
+    private final int maxIds;
+    private final double falsePositiveProbability;
+    private final Map<String, RecentMessageIds> recentIds = new ConcurrentHashMap<>();
+
+    public MessageDeduplicationFilter(MessageChannel outputChannel, IAmqpMessageTracker messageTracker,
+                                      long windowMillis, int maxIds, double falsePositiveProbability) {
+        Assert.notNull(outputChannel, "outputChannel can't be null.");
+        Assert.isTrue(windowMillis > 0, "windowMillis must be positive.");
+        Assert.isTrue(maxIds > 0, "maxIds must be positive.");
+        this.outputChannel = outputChannel;
+        this.messageTracker = messageTracker;
+        this.windowMillis = windowMillis;
+        this.maxIds = maxIds;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    @Override
+    public void handleMessage(Message<?> message) {
+        if (message.getHeaders().containsKey(NotificationRetryTopology.RETRY_COUNT_HEADER)) {
+            send(message);
+            return;
+        }
+        Object region = message.getHeaders().get(PrivateAgentAmqpConstants.REGION_ID);
+        String regionId = region == null ? NO_REGION : region.toString();
+        long fingerprint = fingerprint(message);
+        if (fingerprint == 0) {
+            send(message);
+            return;
+        }
+        RecentMessageIds ids = recentIds.computeIfAbsent(regionId,
+            key -> new RecentMessageIds(windowMillis, maxIds, falsePositiveProbability));
+        // added before processing, so a concurrent copy is dropped while this one is in flight
+        if (!ids.add(fingerprint, System.currentTimeMillis())) {
+            messageTracker.trackDuplicate(regionId);
+            return;
+        }
+        try {
+            send(message);
+        } catch (RuntimeException e) {
+            ids.remove(fingerprint);
+            throw e;
+        }
+    }
+
+    private void send(Message<?> message) {
+        if (!outputChannel.send(message)) {
+            throw new MessageDeliveryException(message, "Failed to send message to " + outputChannel);
+        }
+    }
+
+    /**
+     * @return fingerprint of the notification or 0 if it can not be identified
+     */
+    private long fingerprint(Message<?> message) {
+        Object messageId = message.getHeaders().get(AmqpHeaders.MESSAGE_ID);
+        Object payload = message.getPayload();
+        long fingerprint;
+        if (messageId != null) {
+            fingerprint = HASH_FUNCTION.hashString(messageId.toString(), StandardCharsets.UTF_8).asLong();
+        } else if (payload instanceof byte[]) {
+            fingerprint = HASH_FUNCTION.hashBytes((byte[]) payload).asLong();
+        } else if (payload instanceof String) {
+            fingerprint = HASH_FUNCTION.hashString((String) payload, StandardCharsets.UTF_8).asLong();
+        } else {
+            return 0;
+        }
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.dedup;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * Message id fingerprints seen during the last window. Two generations are kept: ids are added to the current
+ * one, which replaces the previous one when it gets older than the window or holds {@code maxIds} ids, so an id
+ * is remembered for one to two windows and memory is bounded by two generations. A Bloom filter in front of
+ * every generation answers most lookups of new ids without probing the hash set.
+ */
+class RecentMessageIds {
+
+    private final long windowMillis;
+    private final int maxIds;
+    private final double falsePositiveProbability;
+
+    private Generation current;
+    private Generation previous;
+
+    RecentMessageIds(long windowMillis, int maxIds, double falsePositiveProbability) {
+        this.windowMillis = windowMillis;
+        this.maxIds = maxIds;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.current = new Generation(System.currentTimeMillis());
+    }
+
+    /**
+     * @return false if the fingerprint was already seen during the window
+     */
+    synchronized boolean add(long fingerprint, long now) {
+        if (now - current.created >= windowMillis || current.size >= maxIds) {
+            previous = current;
+            current = new Generation(now);
+        }
+        if (current.contains(fingerprint) || (previous != null && now - previous.created < 2 * windowMillis
+            && previous.contains(fingerprint))) {
+            return false;
+        }
+        current.add(fingerprint);
+        return true;
+    }
+
+    /**
+     * Forgets a fingerprint whose notification failed, so that its redelivery is not taken for a duplicate.
+     */
+    synchronized void remove(long fingerprint) {
+        if (!current.remove(fingerprint) && previous != null) {
+            previous.remove(fingerprint);
+        }
+    }
+
+    private final class Generation {
+        private final long created;
+        private final BloomFilter<Long> bloomFilter = BloomFilter.create(Funnels.longFunnel(), maxIds,
+            falsePositiveProbability);
+        // open addressing, 0 marks an empty slot
+        private final long[] slots = new long[Integer.highestOneBit(Math.max(2, maxIds) * 2 - 1) << 1];
+        private int size;
+
+        private Generation(long created) {
+            this.created = created;
+        }
+
+        private boolean contains(long fingerprint) {
+            if (!bloomFilter.mightContain(fingerprint)) {
+                return false;
+            }
+            int mask = slots.length - 1;
+            for (int i = index(fingerprint, mask); slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == fingerprint) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void add(long fingerprint) {
+            bloomFilter.put(fingerprint);
+            int mask = slots.length - 1;
+            int i = index(fingerprint, mask);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = fingerprint;
+            size++;
+        }
+
+        /**
+         * Backward shift deletion, so the probe chains stay without gaps. The Bloom filter keeps the fingerprint,
+         * which only costs a probe of the slots on the next lookup.
+         */
+        private boolean remove(long fingerprint) {
+            int mask = slots.length - 1;
+            int i = index(fingerprint, mask);
+            while (slots[i] != fingerprint) {
+                if (slots[i] == 0) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = 0;
+            size--;
+            for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+                int home = index(slots[j], mask);
+                boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+                if (!reachable) {
+                    slots[i] = slots[j];
+                    slots[j] = 0;
+                    i = j;
+                }
+            }
+            return true;
+        }
+
+        private int index(long fingerprint, int mask) {
+            return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.dispatch;
+
+import io.maestro3.agent.amqp.PrivateAgentAmqpConstants;
+import io.maestro3.agent.amqp.decode.StreamingNotificationDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes notifications on {@code lanes} single threaded lanes. A notification goes to the lane of its
+ * (region, resource) key, so the notifications of one resource are processed in the order they were received
+ * while different resources use all lanes. A full lane blocks the listener thread which stops consuming, so
+ * the backpressure reaches the broker through the prefetch.
+ * <p>
+ * The order is the order in which listener threads hand notifications over, so a queue should have one
+ * consumer when its resources need ordering: the lanes give the parallelism instead.
+ * <p>
+ * A notification is acknowledged once it is queued on its lane, so a failure on the lane is sent to the error
+ * channel of its region, the retry router, and {@link #stop()} processes the queued notifications before the
+ * lanes exit.
+ */
+public class OrderedParallelDispatcher implements MessageHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrderedParallelDispatcher.class);
+    private static final long POLL_MILLIS = 100;
+
+    private final MessageChannel outputChannel;
+    private final StreamingNotificationDecoder decoder = new StreamingNotificationDecoder();
+    private final List<Lane> lanes;
+    private final Map<String, MessageChannel> errorChannels = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    public OrderedParallelDispatcher(String name, MessageChannel outputChannel, int lanes, int laneCapacity) {
+        Assert.notNull(outputChannel, "outputChannel can't be null.");
+        Assert.isTrue(lanes > 0, "lanes must be positive.");
+        Assert.isTrue(laneCapacity > 0, "laneCapacity must be positive.");
+        this.outputChannel = outputChannel;
+        this.lanes = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            Lane lane = new Lane(new ArrayBlockingQueue<>(laneCapacity), name + "-lane-" + i);
+            lane.start();
+            this.lanes.add(lane);
+        }
+    }
+
+    /**
+     * Channel the failed notifications of the region are sent to as {@link ErrorMessage}s.
+     */
+    public void registerErrorChannel(String regionId, MessageChannel errorChannel) {
+        Assert.hasText(regionId, "regionId can't be null or empty.");
+        Assert.notNull(errorChannel, "errorChannel can't be null.");
+        errorChannels.put(regionId, errorChannel);
+    }
+
+    @Override
+    public void handleMessage(Message<?> message) {
+        if (stopped) {
+            throw new MessageDeliveryException(message, "Dispatcher is stopped");
+        }
+        Lane lane = lanes.get(Math.floorMod(key(message), lanes.size()));
+        try {
+            lane.queue.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessageHandlingException(message, "Interrupted while waiting for a dispatcher lane", e);
+        }
+    }
+
+    public int[] getLaneDepths() {
+        int[] depths = new int[lanes.size()];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = lanes.get(i).queue.size();
+        }
+        return depths;
+    }
+
+    /**
+     * Stops accepting notifications and waits up to {@code timeoutMillis} for the lanes to process the queued ones.
+     */
+    public void stop(long timeoutMillis) {
+        stopped = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Lane lane : lanes) {
+            try {
+                lane.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Lane lane : lanes) {
+            lane.interrupt();
+            if (!lane.queue.isEmpty()) {
+                LOG.error("{} notifications were not processed by {} before stop", lane.queue.size(), lane.getName());
+            }
+        }
+    }
+
+    private void onFailure(Message<?> message, Exception e) {
+        Object regionId = message.getHeaders().get(PrivateAgentAmqpConstants.REGION_ID);
+        MessageChannel errorChannel = regionId == null ? null : errorChannels.get(regionId.toString());
+        if (errorChannel != null) {
+            try {
+                errorChannel.send(new ErrorMessage(new MessageHandlingException(message, e)));
+                return;
+            } catch (Exception sendFailure) {
+                e.addSuppressed(sendFailure);
+            }
+        }
+        LOG.error("Failed to process notification " + message.getHeaders().getId(), e);
+    }
+
+    private int key(Message<?> message) {
+        Object regionId = message.getHeaders().get(PrivateAgentAmqpConstants.REGION_ID);
+        int hash = Objects.hash(regionId, resource(message));
+        // spread the bits, the lane count is usually small
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Reads only the resource id of the raw notification on the listener thread, the full decode is left
+     * to the processing behind the lanes.
+     */
+    private String resource(Message<?> message) {
+        Object payload = message.getPayload();
+        try {
+            if (payload instanceof byte[]) {
+                return decoder.readKey((byte[]) payload);
+            } else if (payload instanceof String) {
+                return decoder.readKey((String) payload);
+            }
+        } catch (Exception e) {
+            LOG.debug("Failed to read the resource of a notification, it goes to the region lane: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private final class Lane extends Thread {
+        private final BlockingQueue<Message<?>> queue;
+
+        private Lane(BlockingQueue<Message<?>> queue, String name) {
+            super(name);
+            this.queue = queue;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped || !queue.isEmpty()) {
+                Message<?> message;
+                try {
+                    message = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (message == null) {
+                    continue;
+                }
+                try {
+                    if (!outputChannel.send(message)) {
+                        throw new MessageDeliveryException(message, "Failed to send message to " + outputChannel);
+                    }
+                } catch (Exception e) {
+                    onFailure(message, e);
+                }
+            }
+        }
+    }
+}
@@ -19,23 +19,37 @@ package io.maestro3.agent.amqp.factory;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.maestro3.agent.amqp.PrivateAgentAmqpConstants;
 import io.maestro3.agent.amqp.RegionHeaderMapper;
+import io.maestro3.agent.amqp.batch.AdaptivePrefetchController;
+import io.maestro3.agent.amqp.batch.BatchMessageGroupHandler;
 import io.maestro3.agent.amqp.model.IRabbitConfiguration;
 import io.maestro3.agent.amqp.model.SimpleRabbitConfiguration;
 import io.maestro3.agent.amqp.tracker.IAmqpMessageTracker;
+import io.maestro3.agent.model.base.RabbitNotificationConfig;
 import com.rabbitmq.client.MetricsCollector;
 import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.channel.DirectChannel;
 import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 @Service
 public class CachingRabbitConfigurationFactory implements RabbitConfigurationFactory {
 
@@ -48,6 +62,23 @@ public class CachingRabbitConfigurationFactory implements RabbitConfigurationFac
 
     private IAmqpMessageTracker messageTracker;
 
+    @Value("${private.agent.amqp.adaptive.batch.target.millis:500}")
+    private long adaptiveBatchTargetMillis;
+    @Value("${private.agent.amqp.adaptive.batch.max.prefetch:250}")
+    private int adaptiveDefaultMaxPrefetch;
+
+    @Value("${private.agent.amqp.header.whitelist:}")
+    private String headerWhitelist;
+
+    @Value("${private.agent.amqp.listeners.shared.threads:0}")
+    private int sharedListenerThreads;
+
+    @Value("${private.agent.amqp.connection.timeout.millis:10000}")
+    private int connectionTimeoutMillis;
+
+    private ExecutorService sharedConsumerExecutor;
+    private ThreadPoolTaskScheduler sharedMonitorScheduler;
+
     @Autowired
     public CachingRabbitConfigurationFactory(IAmqpMessageTracker messageTracker) {
         this.messageTracker = messageTracker;
@@ -79,6 +110,12 @@ public class CachingRabbitConfigurationFactory implements RabbitConfigurationFac
             newFactory.setUsername(username);
             newFactory.setPassword(password);
             newFactory.setVirtualHost(vhost);
+            // an unreachable broker fails the connect and the declarations instead of blocking the caller
+            newFactory.setConnectionTimeout(connectionTimeoutMillis);
+            newFactory.getRabbitConnectionFactory().setChannelRpcTimeout(connectionTimeoutMillis);
+            if (sharedListenerThreads > 0) {
+                newFactory.setExecutor(getSharedConsumerExecutor());
+            }
             if (regionId != null) {
                 MetricsCollector metricsCollector = messageTracker.registerMetricCollector(regionId, rabbitConfiguration);
                 newFactory.getRabbitConnectionFactory().setMetricsCollector(metricsCollector);
@@ -104,18 +141,148 @@ public class CachingRabbitConfigurationFactory implements RabbitConfigurationFac
         return listenerContainer;
     }
 
+    @Override
+    public SimpleMessageListenerContainer createListenerContainer(ConnectionFactory connectionFactory,
+                                                                  RabbitNotificationConfig config) {
+        SimpleMessageListenerContainer listenerContainer = createListenerContainer(connectionFactory,
+                config.getMinConcurrentConsumers(),
+                config.getMaxConcurrentConsumers(),
+                config.getShutdownTimeoutMillis());
+        int batchSize = Math.max(1, config.getBatchSize());
+        listenerContainer.setBatchSize(batchSize);
+        listenerContainer.setPrefetchCount(prefetchCount(config));
+        listenerContainer.setConsumerBatchEnabled(batchSize > 1 || config.isAdaptivePrefetch());
+        return listenerContainer;
+    }
+
+    @Override
+    public DirectMessageListenerContainer createDirectListenerContainer(ConnectionFactory connectionFactory,
+                                                                        RabbitNotificationConfig config) {
+        DirectMessageListenerContainer listenerContainer = new DirectMessageListenerContainer(connectionFactory);
+        listenerContainer.setAcknowledgeMode(AcknowledgeMode.AUTO);
+        listenerContainer.setConsumersPerQueue(config.getConsumersPerQueue() > 0
+                ? config.getConsumersPerQueue()
+                : Math.max(1, config.getMinConcurrentConsumers()));
+        listenerContainer.setPrefetchCount(Math.max(1, config.getPrefetchCount()));
+        listenerContainer.setShutdownTimeout(config.getShutdownTimeoutMillis());
+        listenerContainer.setDefaultRequeueRejected(false);
+        listenerContainer.setTaskScheduler(getSharedMonitorScheduler());
+        return listenerContainer;
+    }
+
+    @Override
+    public int getSharedListenerThreads() {
+        return Math.max(0, sharedListenerThreads);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (sharedMonitorScheduler != null) {
+            sharedMonitorScheduler.shutdown();
+        }
+        if (sharedConsumerExecutor != null) {
+            sharedConsumerExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public AmqpInboundChannelAdapter createInboundChannelAdapter(SimpleMessageListenerContainer listenerContainer,
+                                                                 MessageChannel messageChannel,
+                                                                 String regionId,
+                                                                 RabbitNotificationConfig config,
+                                                                 MessageChannel errorChannel) {
+        if (!listenerContainer.isConsumerBatchEnabled()) {
+            return createInboundChannelAdapter(listenerContainer, messageChannel, regionId, errorChannel);
+        }
+        AdaptivePrefetchController prefetchController = config.isAdaptivePrefetch()
+                ? new AdaptivePrefetchController(regionId, listenerContainer, Math.max(1, config.getBatchSize()),
+                prefetchCount(config), adaptiveBatchTargetMillis)
+                : null;
+        DirectChannel batchChannel = new DirectChannel();
+        batchChannel.subscribe(new BatchMessageGroupHandler(messageChannel, prefetchController));
+
+        AmqpInboundChannelAdapter inboundChannelAdapter = new AmqpInboundChannelAdapter(listenerContainer);
+        inboundChannelAdapter.setOutputChannel(batchChannel);
+        inboundChannelAdapter.setHeaderMapper(new RegionHeaderMapper(regionId, headerWhitelist()));
+        inboundChannelAdapter.setBatchMode(AmqpInboundChannelAdapter.BatchMode.EXTRACT_PAYLOADS_WITH_HEADERS);
+        if (errorChannel != null) {
+            inboundChannelAdapter.setErrorChannel(errorChannel);
+        }
+        inboundChannelAdapter.afterPropertiesSet();
+
+        return inboundChannelAdapter;
+    }
+
     @Override
     public AmqpInboundChannelAdapter createInboundChannelAdapter(AbstractMessageListenerContainer listenerContainer,
                                                                  MessageChannel messageChannel,
                                                                  String regionId) {
+        return createInboundChannelAdapter(listenerContainer, messageChannel, regionId, null);
+    }
+
+    @Override
+    public AmqpInboundChannelAdapter createInboundChannelAdapter(AbstractMessageListenerContainer listenerContainer,
+                                                                 MessageChannel messageChannel,
+                                                                 String regionId,
+                                                                 MessageChannel errorChannel) {
         AmqpInboundChannelAdapter inboundChannelAdapter = new AmqpInboundChannelAdapter(listenerContainer);
         inboundChannelAdapter.setOutputChannel(messageChannel);
-        inboundChannelAdapter.setHeaderMapper(new RegionHeaderMapper(regionId));
+        inboundChannelAdapter.setHeaderMapper(new RegionHeaderMapper(regionId, headerWhitelist()));
+        // the raw message travels with the notification, a dispatcher lane can send it to retry
+        inboundChannelAdapter.setBindSourceMessage(true);
+        if (errorChannel != null) {
+            inboundChannelAdapter.setErrorChannel(errorChannel);
+        }
         inboundChannelAdapter.afterPropertiesSet();
 
         return inboundChannelAdapter;
     }
 
+    /**
+     * The QoS of a consumer channel is set once, so an adaptive container is started with the prefetch of its
+     * largest batch.
+     */
+    private int prefetchCount(RabbitNotificationConfig config) {
+        int prefetchCount = Math.max(Math.max(1, config.getBatchSize()), config.getPrefetchCount());
+        if (!config.isAdaptivePrefetch()) {
+            return prefetchCount;
+        }
+        int maxPrefetchCount = config.getMaxPrefetchCount() > 0 ? config.getMaxPrefetchCount() : adaptiveDefaultMaxPrefetch;
+        return Math.max(prefetchCount, maxPrefetchCount);
+    }
+
+    private synchronized ExecutorService getSharedConsumerExecutor() {
+        if (sharedConsumerExecutor == null) {
+            sharedConsumerExecutor = Executors.newFixedThreadPool(sharedListenerThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("amqp-consumer-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return sharedConsumerExecutor;
+    }
+
+    private synchronized ThreadPoolTaskScheduler getSharedMonitorScheduler() {
+        if (sharedMonitorScheduler == null) {
+            sharedMonitorScheduler = new ThreadPoolTaskScheduler();
+            sharedMonitorScheduler.setThreadNamePrefix("amqp-listener-monitor-");
+            sharedMonitorScheduler.setDaemon(true);
+            sharedMonitorScheduler.initialize();
+        }
+        return sharedMonitorScheduler;
+    }
+
+    private List<String> headerWhitelist() {
+        List<String> headers = new ArrayList<>();
+        if (headerWhitelist != null) {
+            for (String header : headerWhitelist.split(",")) {
+                if (!header.trim().isEmpty()) {
+                    headers.add(header.trim());
+                }
+            }
+        }
+        return headers;
+    }
+
     private String createCacheKey(String host, int port, String username, String password, String vhost) {
         return host + CACHE_KEY_DELIMITER + port + CACHE_KEY_DELIMITER + username + CACHE_KEY_DELIMITER + password + CACHE_KEY_DELIMITER + vhost;
     }
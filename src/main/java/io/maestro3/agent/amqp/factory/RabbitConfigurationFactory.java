@@ -17,8 +17,10 @@
 
 package io.maestro3.agent.amqp.factory;
 
+import io.maestro3.agent.model.base.RabbitNotificationConfig;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
 import org.springframework.messaging.MessageChannel;
@@ -31,7 +33,41 @@ public interface RabbitConfigurationFactory {
 
     SimpleMessageListenerContainer createListenerContainer(ConnectionFactory connectionFactory, int minConcurrentConsumers, int maxConcurrentConsumers, int shutdownTimeoutMillis);
 
+    /**
+     * Listener container with the consumers, batch size and prefetch of the region notification config.
+     */
+    SimpleMessageListenerContainer createListenerContainer(ConnectionFactory connectionFactory, RabbitNotificationConfig config);
+
+    /**
+     * Listener container which consumes any number of queues of one connection with
+     * {@link RabbitNotificationConfig#getConsumersPerQueue()} consumers per queue on shared threads.
+     */
+    DirectMessageListenerContainer createDirectListenerContainer(ConnectionFactory connectionFactory, RabbitNotificationConfig config);
+
+    /**
+     * Size of the consumer pool shared by the connections, 0 if every connection has its own pool.
+     */
+    int getSharedListenerThreads();
+
     AmqpInboundChannelAdapter createInboundChannelAdapter(AbstractMessageListenerContainer listenerContainer,
                                                           MessageChannel messageChannel,
                                                           String regionId);
+
+    /**
+     * @param errorChannel channel of failed messages carrying the raw AMQP message, null to reject them
+     */
+    AmqpInboundChannelAdapter createInboundChannelAdapter(AbstractMessageListenerContainer listenerContainer,
+                                                          MessageChannel messageChannel,
+                                                          String regionId,
+                                                          MessageChannel errorChannel);
+
+    /**
+     * Inbound adapter which delivers consumer batches of the container as message groups
+     * and adapts the batch size when the config enables the adaptive prefetch.
+     */
+    AmqpInboundChannelAdapter createInboundChannelAdapter(SimpleMessageListenerContainer listenerContainer,
+                                                          MessageChannel messageChannel,
+                                                          String regionId,
+                                                          RabbitNotificationConfig config,
+                                                          MessageChannel errorChannel);
 }
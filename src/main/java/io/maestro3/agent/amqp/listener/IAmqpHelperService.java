@@ -23,4 +23,13 @@ public interface IAmqpHelperService {
 
     void assertExchangeExist(RabbitNotificationConfig config) throws IllegalStateException;
 
+    /**
+     * Moves notifications from the parking lot of the queue back to the queue.
+     *
+     * @param maxMessages       maximum number of notifications to move
+     * @param messagesPerSecond rate of moving
+     * @return number of moved notifications
+     */
+    int replayParkingLot(String regionId, String queue, int maxMessages, double messagesPerSecond);
+
 }
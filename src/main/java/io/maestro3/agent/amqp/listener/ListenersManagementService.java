@@ -18,13 +18,25 @@
 package io.maestro3.agent.amqp.listener;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.maestro3.agent.amqp.IntegrationChannels;
+import io.maestro3.agent.amqp.dedup.MessageDeduplicationFilter;
+import io.maestro3.agent.amqp.dispatch.OrderedParallelDispatcher;
+import io.maestro3.agent.amqp.retry.NotificationRetryRouter;
+import io.maestro3.agent.amqp.retry.NotificationRetryTopology;
+import io.maestro3.agent.amqp.decode.StreamingDecodeHandler;
+import io.maestro3.agent.amqp.decode.StreamingNotificationDecoder;
 import io.maestro3.agent.amqp.factory.RabbitConfigurationFactory;
+import io.maestro3.agent.amqp.model.ListenerTopology;
 import io.maestro3.agent.amqp.router.IAmqpRoutingService;
+import io.maestro3.agent.amqp.tracker.IAmqpMessageTracker;
 import io.maestro3.agent.model.base.IAmqpSupportedRegion;
 import io.maestro3.agent.model.base.PrivateCloudType;
 import io.maestro3.agent.model.base.RabbitNotificationConfig;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.ArrayUtils;
@@ -38,19 +50,40 @@ import org.springframework.amqp.core.QueueInformation;
 import org.springframework.amqp.rabbit.connection.Connection;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
+import org.springframework.integration.channel.DirectChannel;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class ListenersManagementService implements ListenersLifecycleManager, IAmqpHelperService {
@@ -59,29 +92,105 @@ public class ListenersManagementService implements ListenersLifecycleManager, IA
 
     private RabbitConfigurationFactory rabbitConfigurationFactory;
     private IAmqpRoutingService routingService;
+    private IAmqpMessageTracker messageTracker;
+
+    @Value("${private.agent.amqp.listeners.consolidated:false}")
+    private boolean consolidatedListeners;
+    @Value("${private.agent.amqp.dedup.enabled:false}")
+    private boolean deduplicationEnabled;
+    @Value("${private.agent.amqp.dedup.window.seconds:600}")
+    private long deduplicationWindowSeconds;
+    @Value("${private.agent.amqp.dedup.max.ids:100000}")
+    private int deduplicationMaxIds;
+    @Value("${private.agent.amqp.dedup.bloom.fpp:0.01}")
+    private double deduplicationFalsePositiveProbability;
+    @Value("${private.agent.amqp.ordered.dispatch.lanes:0}")
+    private int orderedDispatchLanes;
+    @Value("${private.agent.amqp.ordered.dispatch.lane.capacity:1000}")
+    private int orderedDispatchLaneCapacity;
+    @Value("${private.agent.amqp.ordered.dispatch.stop.timeout.millis:30000}")
+    private long orderedDispatchStopTimeoutMillis;
+    @Value("${private.agent.amqp.retry.enabled:false}")
+    private boolean retryEnabled;
+    @Value("${private.agent.amqp.retry.delays.millis:5000,60000,600000}")
+    private String retryDelays;
+    @Value("${private.agent.amqp.retry.replay.batch.max:10000}")
+    private int replayMaxMessages;
+    @Value("${private.agent.amqp.bootstrap.threads:4}")
+    private int bootstrapThreads;
+    @Value("${private.agent.amqp.bootstrap.region.timeout.millis:30000}")
+    private long bootstrapRegionTimeoutMillis;
+    @Value("${private.agent.amqp.bootstrap.retry.delay.millis:10000}")
+    private long bootstrapRetryDelayMillis;
+    @Value("${private.agent.amqp.bootstrap.retry.max.delay.millis:300000}")
+    private long bootstrapRetryMaxDelayMillis;
+
+    private NotificationRetryTopology retryTopology;
+    private ExecutorService bootstrapExecutor;
+    private ScheduledExecutorService bootstrapScheduler;
 
     private Map<PrivateCloudType, MessageChannel> messageChannels = new HashMap<>();
+    private Map<PrivateCloudType, MessageChannel> decodedChannels = new HashMap<>();
+    private Map<PrivateCloudType, MessageChannel> inboundChannels = new ConcurrentHashMap<>();
+    private Map<PrivateCloudType, OrderedParallelDispatcher> dispatchers = new ConcurrentHashMap<>();
+    private Set<String> bootstrappingRegions = ConcurrentHashMap.newKeySet();
 
     private List<IAmqpSupportedRegion> regionsToConfigureNotifications;
-    private List<SimpleMessageListenerContainer> notificationsListeners;
+    private List<AbstractMessageListenerContainer> notificationsListeners;
 
     public ListenersManagementService(@Autowired @Qualifier(IntegrationChannels.Inbound.OS_BYTES)
                                           MessageChannel osChannel,
                                       @Autowired RabbitConfigurationFactory rabbitConfigurationFactory,
-                                      @Autowired IAmqpRoutingService routingService) {
+                                      @Autowired IAmqpRoutingService routingService,
+                                      @Autowired IAmqpMessageTracker messageTracker) {
         this.rabbitConfigurationFactory = rabbitConfigurationFactory;
+        this.messageTracker = messageTracker;
         this.messageChannels.put(PrivateCloudType.OPEN_STACK, osChannel);
         this.routingService = routingService;
 
         regionsToConfigureNotifications = Lists.newLinkedList();
-        notificationsListeners = Lists.newLinkedList();
+        notificationsListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Opt-in for a cloud module which processes {@link io.maestro3.agent.amqp.model.NotificationEvent}s: when it
+     * declares the decoded notifications channel, OpenStack notifications are decoded by the streaming decoder
+     * behind the dispatcher and de-duplication, and sent there instead of the raw bytes to the bytes channel.
+     */
+    @Autowired(required = false)
+    public void setDecodedNotificationsChannel(@Qualifier(IntegrationChannels.Inbound.OS_NOTIFICATIONS_DECODED)
+                                                   MessageChannel decodedChannel) {
+        decodedChannels.put(PrivateCloudType.OPEN_STACK, decodedChannel);
+    }
+
+    @PostConstruct
+    public void startBootstrapExecutors() {
+        retryTopology = NotificationRetryTopology.parse(retryDelays);
+        bootstrapExecutor = Executors.newFixedThreadPool(Math.max(1, bootstrapThreads), new ThreadFactoryBuilder()
+            .setNameFormat("amqp-region-bootstrap-%d")
+            .setDaemon(true)
+            .build());
+        bootstrapScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("amqp-region-bootstrap-timer")
+            .setDaemon(true)
+            .build());
+    }
+
+    @PreDestroy
+    public void stopBootstrapExecutors() {
+        bootstrapScheduler.shutdownNow();
+        bootstrapExecutor.shutdownNow();
+        if (!dispatchers.isEmpty()) {
+            // the dispatched notifications are acknowledged already, the lanes process them once consuming stops
+            stopListeners();
+            dispatchers.values().forEach(dispatcher -> dispatcher.stop(orderedDispatchStopTimeoutMillis));
+        }
     }
 
     @Override
     public void startListeners() {
         cleanListenersQueueNames(notificationsListeners);
         configureNotificationQueues();
-        startListeners(notificationsListeners);
     }
 
     @Override
@@ -121,6 +230,50 @@ public class ListenersManagementService implements ListenersLifecycleManager, IA
         }
     }
 
+    @Override
+    public int replayParkingLot(String regionId, String queue, int maxMessages, double messagesPerSecond) {
+        Assert.hasText(regionId, "regionId must not be empty");
+        Assert.hasText(queue, "queue must not be empty");
+        Assert.isTrue(messagesPerSecond > 0, "messagesPerSecond must be positive");
+        IAmqpSupportedRegion region = regionsToConfigureNotifications.stream()
+            .filter(candidate -> regionId.equals(candidate.getId()))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Region " + regionId + " does not listen to notifications"));
+        RabbitNotificationConfig config = region.getRabbitNotificationConfig();
+        ConnectionFactory connectionFactory = rabbitConfigurationFactory.createConnectionFactory(
+            config.getRabbitHost(), config.getRabbitPort(),
+            config.getRabbitUsername(), config.getRabbitPassword(), config.getRabbitVirtHost(), region.getId());
+        RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setChannelTransacted(true);
+        RateLimiter rateLimiter = RateLimiter.create(messagesPerSecond);
+        String parkingLot = retryTopology.parkingLotQueue(queue);
+        int limit = Math.min(maxMessages, replayMaxMessages);
+        // the publish and the acknowledgement in the parking lot are committed together, one notification at a time
+        int replayed = rabbitTemplate.execute(channel -> {
+            int count = 0;
+            while (count < limit) {
+                rateLimiter.acquire();
+                GetResponse response = channel.basicGet(parkingLot, false);
+                if (response == null) {
+                    break;
+                }
+                AMQP.BasicProperties properties = response.getProps();
+                Map<String, Object> headers = properties.getHeaders() == null
+                    ? new HashMap<>()
+                    : new HashMap<>(properties.getHeaders());
+                // the replayed notification gets the whole retry budget again
+                headers.remove(NotificationRetryTopology.RETRY_COUNT_HEADER);
+                channel.basicPublish("", queue, properties.builder().headers(headers).build(), response.getBody());
+                channel.basicAck(response.getEnvelope().getDeliveryTag(), false);
+                channel.txCommit();
+                count++;
+            }
+            return count;
+        });
+        LOG.info("Replayed {} notifications of region {} from {} to {}", replayed, regionId, parkingLot, queue);
+        return replayed;
+    }
+
     @Override
     public boolean stopListeners() {
         return stopListeners(notificationsListeners);
@@ -132,52 +285,204 @@ public class ListenersManagementService implements ListenersLifecycleManager, IA
         }
 
         for (IAmqpSupportedRegion region : regionsToConfigureNotifications) {
-            RabbitNotificationConfig config = region.getRabbitNotificationConfig();
-            ConnectionFactory connectionFactory = rabbitConfigurationFactory.createConnectionFactory(
-                config.getRabbitHost(), config.getRabbitPort(),
-                config.getRabbitUsername(), config.getRabbitPassword(), config.getRabbitVirtHost(), region.getId());
-            Map<String, List<String>> queueMapping = config.getQueueMapping();
-            if (MapUtils.isNotEmpty(queueMapping)) {
-                queueMapping.forEach((exchange, queues) -> {
-                    for (String queue : queues) {
-
-                        ensureOsNotificationQueuesBindings(
-                            queue,
-                            exchange,
-                            connectionFactory);
-
-                        SimpleMessageListenerContainer listenerContainer = rabbitConfigurationFactory.createListenerContainer(
-                            connectionFactory,
-                            config.getMinConcurrentConsumers(),
-                            config.getMaxConcurrentConsumers(),
-                            config.getShutdownTimeoutMillis());
-
-                        listenerContainer.addQueueNames(queue);
-                        notificationsListeners.add(listenerContainer);
-
-                        MessageChannel messageChannel = messageChannels.get(region.getCloud());
-                        AmqpInboundChannelAdapter inboundChannelAdapter = rabbitConfigurationFactory.createInboundChannelAdapter(
-                            listenerContainer, messageChannel, region.getId());
-                        inboundChannelAdapter.start();
+            bootstrapRegion(region, 1);
+        }
+    }
+
+    /**
+     * Configures and starts the listeners of a region on the bootstrap executor, so that a slow or
+     * unreachable broker only holds back its own region. A region which fails or misses its deadline
+     * is retried in the background with a growing delay. The connection and channel timeouts of the
+     * connection factory bound the blocking calls, the deadline also interrupts the attempt.
+     */
+    private void bootstrapRegion(IAmqpSupportedRegion region, int attempt) {
+        if (!bootstrappingRegions.add(region.getId())) {
+            // the worker of the timed out attempt is still blocked, another one would only pile up behind it
+            LOG.warn("Previous attempt to start listeners of region {} is still running, attempt {} is postponed",
+                region.getId(), attempt);
+            scheduleBootstrapRetry(region, attempt);
+            return;
+        }
+        CompletableFuture<List<AbstractMessageListenerContainer>> result = new CompletableFuture<>();
+        result.whenComplete((containers, error) -> {
+            if (error == null) {
+                notificationsListeners.addAll(containers);
+                LOG.info("Listeners of region {} have been started, attempt {}", region.getId(), attempt);
+                return;
+            }
+            LOG.warn("Failed to start listeners of region {}, attempt {}: {}", region.getId(), attempt, error.getMessage());
+            scheduleBootstrapRetry(region, attempt);
+        });
+        try {
+            AtomicBoolean started = new AtomicBoolean();
+            Future<?> task = bootstrapExecutor.submit(() -> {
+                started.set(true);
+                try {
+                    List<AbstractMessageListenerContainer> containers = configureRegion(region);
+                    if (!result.complete(containers)) {
+                        // the deadline has passed and a retry is scheduled already
+                        containers.forEach(AbstractMessageListenerContainer::stop);
                     }
-                });
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    bootstrappingRegions.remove(region.getId());
+                }
+            });
+            ScheduledFuture<?> deadline = bootstrapScheduler.schedule(() -> {
+                if (result.completeExceptionally(
+                    new TimeoutException("deadline of " + bootstrapRegionTimeoutMillis + " ms exceeded"))
+                    && task.cancel(true) && !started.get()) {
+                    // cancelled in the executor queue, the task never runs to release the region
+                    bootstrappingRegions.remove(region.getId());
+                }
+            }, bootstrapRegionTimeoutMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((containers, error) -> deadline.cancel(false));
+        } catch (RejectedExecutionException e) {
+            bootstrappingRegions.remove(region.getId());
+            LOG.warn("Listeners bootstrap is stopped, region {} is skipped", region.getId());
+        }
+    }
+
+    private void scheduleBootstrapRetry(IAmqpSupportedRegion region, int attempt) {
+        long delay = Math.min(bootstrapRetryMaxDelayMillis, bootstrapRetryDelayMillis << Math.min(attempt - 1, 10));
+        LOG.info("Next attempt to start listeners of region {} in {} ms", region.getId(), delay);
+        try {
+            bootstrapScheduler.schedule(() -> bootstrapRegion(region, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Listeners bootstrap is stopped, region {} is skipped", region.getId());
+        }
+    }
+
+    private List<AbstractMessageListenerContainer> configureRegion(IAmqpSupportedRegion region) {
+        List<AbstractMessageListenerContainer> containers = Lists.newArrayList();
+        try {
+            return configureRegion(region, containers);
+        } catch (RuntimeException e) {
+            // the adapters have started the containers created before the failure
+            containers.forEach(AbstractMessageListenerContainer::stop);
+            throw e;
+        }
+    }
+
+    private List<AbstractMessageListenerContainer> configureRegion(IAmqpSupportedRegion region,
+                                                                   List<AbstractMessageListenerContainer> containers) {
+        RabbitNotificationConfig config = region.getRabbitNotificationConfig();
+        ConnectionFactory connectionFactory = rabbitConfigurationFactory.createConnectionFactory(
+            config.getRabbitHost(), config.getRabbitPort(),
+            config.getRabbitUsername(), config.getRabbitPassword(), config.getRabbitVirtHost(), region.getId());
+        Map<String, List<String>> queueMapping = config.getQueueMapping();
+        if (MapUtils.isEmpty(queueMapping)) {
+            return containers;
+        }
+        MessageChannel messageChannel = inboundChannel(region.getCloud());
+        MessageChannel errorChannel = retryEnabled
+            ? subscribedChannel(new NotificationRetryRouter(new RabbitTemplate(connectionFactory), retryTopology, region.getId()))
+            : null;
+        OrderedParallelDispatcher dispatcher = dispatchers.get(region.getCloud());
+        if (dispatcher != null && errorChannel != null) {
+            dispatcher.registerErrorChannel(region.getId(), errorChannel);
+        }
+        AmqpAdmin amqpAdmin = new RabbitAdmin(connectionFactory);
+        List<String> regionQueues = Lists.newArrayList();
+        queueMapping.forEach((exchange, queues) -> {
+            for (String queue : queues) {
+                ensureOsNotificationQueuesBindings(
+                    queue,
+                    exchange,
+                    amqpAdmin);
+                regionQueues.add(queue);
             }
+        });
+        if (regionQueues.isEmpty()) {
+            return containers;
         }
+
+        if (consolidatedListeners) {
+            // region header mapper is per region, so the queues of a region share one container of its connection
+            DirectMessageListenerContainer listenerContainer = rabbitConfigurationFactory.createDirectListenerContainer(
+                connectionFactory, config);
+            listenerContainer.addQueueNames(regionQueues.toArray(new String[0]));
+            containers.add(listenerContainer);
+
+            AmqpInboundChannelAdapter inboundChannelAdapter = rabbitConfigurationFactory.createInboundChannelAdapter(
+                listenerContainer, messageChannel, region.getId(), errorChannel);
+            inboundChannelAdapter.start();
+        } else {
+            for (String queue : regionQueues) {
+                SimpleMessageListenerContainer listenerContainer = rabbitConfigurationFactory.createListenerContainer(
+                    connectionFactory, config);
+
+                listenerContainer.addQueueNames(queue);
+                containers.add(listenerContainer);
+
+                AmqpInboundChannelAdapter inboundChannelAdapter = rabbitConfigurationFactory.createInboundChannelAdapter(
+                    listenerContainer, messageChannel, region.getId(), config, errorChannel);
+                inboundChannelAdapter.start();
+            }
+        }
+        messageTracker.registerListenerTopology(region.getId(), listenerTopology(config, regionQueues.size()));
+        startListeners(containers);
+        return containers;
+    }
+
+    /**
+     * Channel the listeners of the cloud send to, built once per cloud: the processing channel behind
+     * the optional streaming decoder, de-duplication filter and ordered-parallel dispatcher.
+     */
+    private MessageChannel inboundChannel(PrivateCloudType cloud) {
+        MessageChannel decodedChannel = decodedChannels.get(cloud);
+        MessageChannel messageChannel = decodedChannel != null ? decodedChannel : messageChannels.get(cloud);
+        if (messageChannel == null) {
+            return null;
+        }
+        return inboundChannels.computeIfAbsent(cloud, key -> {
+            MessageChannel channel = messageChannel;
+            if (decodedChannel != null) {
+                channel = subscribedChannel(new StreamingDecodeHandler(new StreamingNotificationDecoder(), channel));
+            }
+            if (deduplicationEnabled) {
+                // behind the dispatcher a notification is recorded once processed, copies of it share its lane
+                channel = subscribedChannel(new MessageDeduplicationFilter(channel, messageTracker,
+                    TimeUnit.SECONDS.toMillis(deduplicationWindowSeconds), deduplicationMaxIds,
+                    deduplicationFalsePositiveProbability));
+            }
+            if (orderedDispatchLanes > 0) {
+                OrderedParallelDispatcher dispatcher = new OrderedParallelDispatcher(
+                    "notifications-" + cloud.name().toLowerCase(), channel, orderedDispatchLanes, orderedDispatchLaneCapacity);
+                dispatchers.put(cloud, dispatcher);
+                channel = subscribedChannel(dispatcher);
+            }
+            return channel;
+        });
+    }
+
+    private static MessageChannel subscribedChannel(MessageHandler handler) {
+        DirectChannel channel = new DirectChannel();
+        channel.subscribe(handler);
+        return channel;
+    }
+
+    private ListenerTopology listenerTopology(RabbitNotificationConfig config, int queues) {
+        int perQueueThreads = queues * Math.max(1, config.getMinConcurrentConsumers());
+        if (!consolidatedListeners) {
+            return new ListenerTopology(queues, perQueueThreads, perQueueThreads, perQueueThreads, 0);
+        }
+        int consumersPerQueue = config.getConsumersPerQueue() > 0
+            ? config.getConsumersPerQueue()
+            : Math.max(1, config.getMinConcurrentConsumers());
+        return new ListenerTopology(1, queues * consumersPerQueue, 0, perQueueThreads,
+            rabbitConfigurationFactory.getSharedListenerThreads());
     }
 
     private void ensureOsNotificationQueuesBindings(String notificationsQueue,
                                                     String exchange,
-                                                    ConnectionFactory connectionFactory) {
-        try {
-            AmqpAdmin amqpAdmin = new RabbitAdmin(connectionFactory);
-            ensureOsNotificQueueBinding(
-                notificationsQueue,
-                Optional.ofNullable(exchange).orElse(routingService.getNotificationQueue()),
-                routingService.getNotificationTopics(),
-                amqpAdmin);
-        } catch (Exception e) {
-            LOG.error("Error where occurred due Queue/Binding refresh push notifications. " + e.getMessage(), e);
-        }
+                                                    AmqpAdmin amqpAdmin) {
+        ensureOsNotificQueueBinding(
+            notificationsQueue,
+            Optional.ofNullable(exchange).orElse(routingService.getNotificationQueue()),
+            routingService.getNotificationTopics(),
+            amqpAdmin);
     }
 
     private void ensureOsNotificQueueBinding(String notificationsQueue,
@@ -194,10 +499,13 @@ public class ListenersManagementService implements ListenersLifecycleManager, IA
         for (String routingKey : routingKeys) {
             amqpAdmin.declareBinding(BindingBuilder.bind(queue).to(directExchange).with(routingKey));
         }
+        if (retryEnabled) {
+            retryTopology.declare(amqpAdmin, notificationsQueue);
+        }
     }
 
-    private void startListeners(Collection<SimpleMessageListenerContainer> listeners) {
-        for (SimpleMessageListenerContainer listener : listeners) {
+    private void startListeners(Collection<AbstractMessageListenerContainer> listeners) {
+        for (AbstractMessageListenerContainer listener : listeners) {
             String[] queueNames = listener.getQueueNames();
             if (!ArrayUtils.isEmpty(queueNames)) {
                 listener.start();
@@ -206,8 +514,8 @@ public class ListenersManagementService implements ListenersLifecycleManager, IA
         }
     }
 
-    private boolean areListenersRunning(Collection<SimpleMessageListenerContainer> listeners) {
-        for (SimpleMessageListenerContainer listener : listeners) {
+    private boolean areListenersRunning(Collection<AbstractMessageListenerContainer> listeners) {
+        for (AbstractMessageListenerContainer listener : listeners) {
             if (listener.isActive()) {
                 return true;
             }
@@ -216,11 +524,11 @@ public class ListenersManagementService implements ListenersLifecycleManager, IA
     }
 
 
-    private boolean stopListeners(Collection<SimpleMessageListenerContainer> listeners) {
+    private boolean stopListeners(Collection<AbstractMessageListenerContainer> listeners) {
         LOG.info("Stopping AMQP listeners...");
         if (areListenersRunning(listeners)) {
-            for (SimpleMessageListenerContainer listener : listeners) {
-                listener.start();
+            for (AbstractMessageListenerContainer listener : listeners) {
+                listener.stop();
                 LOG.info("{} listeners have been successfully stopped.", listener);
             }
             return true;
@@ -230,8 +538,8 @@ public class ListenersManagementService implements ListenersLifecycleManager, IA
         }
     }
 
-    private void cleanListenersQueueNames(Collection<SimpleMessageListenerContainer> listeners) {
-        for (SimpleMessageListenerContainer listener : listeners) {
+    private void cleanListenersQueueNames(Collection<AbstractMessageListenerContainer> listeners) {
+        for (AbstractMessageListenerContainer listener : listeners) {
             listener.setQueueNames();
         }
     }
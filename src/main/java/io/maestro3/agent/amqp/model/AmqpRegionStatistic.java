@@ -17,6 +17,10 @@
 
 package io.maestro3.agent.amqp.model;
 
+import io.maestro3.agent.model.base.AuditStatistic;
+import io.maestro3.agent.model.base.LockStatistic;
+import io.maestro3.agent.model.base.SchedulerStatistic;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -36,6 +40,20 @@ public class AmqpRegionStatistic {
     private long allPublishedMessages;
     private double publishedMessagesPerFiveMin;
     private List<MessageStatistics> queueStats = Collections.emptyList();
+    private long minLatency;
+    private long avgLatency;
+    private long p99Latency;
+    private int consecutiveProbeFailures;
+    private long lastProbeTime;
+    private long droppedDuplicates;
+    private int listenerContainers;
+    private int consumerChannels;
+    private int dedicatedConsumerThreads;
+    private int perQueueLayoutThreads;
+    private int sharedListenerThreads;
+    private List<SchedulerStatistic> schedulerStats = Collections.emptyList();
+    private List<LockStatistic> lockStats = Collections.emptyList();
+    private AuditStatistic auditStatistic;
 
     public List<MessageStatistics> getQueueStats() {
         return queueStats;
@@ -140,4 +158,116 @@ public class AmqpRegionStatistic {
     public void setOutdated(boolean outdated) {
         this.outdated = outdated;
     }
+
+    public int getListenerContainers() {
+        return listenerContainers;
+    }
+
+    public void setListenerContainers(int listenerContainers) {
+        this.listenerContainers = listenerContainers;
+    }
+
+    public int getConsumerChannels() {
+        return consumerChannels;
+    }
+
+    public void setConsumerChannels(int consumerChannels) {
+        this.consumerChannels = consumerChannels;
+    }
+
+    public int getDedicatedConsumerThreads() {
+        return dedicatedConsumerThreads;
+    }
+
+    public void setDedicatedConsumerThreads(int dedicatedConsumerThreads) {
+        this.dedicatedConsumerThreads = dedicatedConsumerThreads;
+    }
+
+    public int getPerQueueLayoutThreads() {
+        return perQueueLayoutThreads;
+    }
+
+    public void setPerQueueLayoutThreads(int perQueueLayoutThreads) {
+        this.perQueueLayoutThreads = perQueueLayoutThreads;
+    }
+
+    public int getSharedListenerThreads() {
+        return sharedListenerThreads;
+    }
+
+    public void setSharedListenerThreads(int sharedListenerThreads) {
+        this.sharedListenerThreads = sharedListenerThreads;
+    }
+
+    public long getMinLatency() {
+        return minLatency;
+    }
+
+    public void setMinLatency(long minLatency) {
+        this.minLatency = minLatency;
+    }
+
+    public long getAvgLatency() {
+        return avgLatency;
+    }
+
+    public void setAvgLatency(long avgLatency) {
+        this.avgLatency = avgLatency;
+    }
+
+    public long getP99Latency() {
+        return p99Latency;
+    }
+
+    public void setP99Latency(long p99Latency) {
+        this.p99Latency = p99Latency;
+    }
+
+    public int getConsecutiveProbeFailures() {
+        return consecutiveProbeFailures;
+    }
+
+    public void setConsecutiveProbeFailures(int consecutiveProbeFailures) {
+        this.consecutiveProbeFailures = consecutiveProbeFailures;
+    }
+
+    public long getLastProbeTime() {
+        return lastProbeTime;
+    }
+
+    public void setLastProbeTime(long lastProbeTime) {
+        this.lastProbeTime = lastProbeTime;
+    }
+
+    public long getDroppedDuplicates() {
+        return droppedDuplicates;
+    }
+
+    public void setDroppedDuplicates(long droppedDuplicates) {
+        this.droppedDuplicates = droppedDuplicates;
+    }
+
+    public List<SchedulerStatistic> getSchedulerStats() {
+        return schedulerStats;
+    }
+
+    public void setSchedulerStats(List<SchedulerStatistic> schedulerStats) {
+        this.schedulerStats = schedulerStats;
+    }
+
+    public List<LockStatistic> getLockStats() {
+        return lockStats;
+    }
+
+    public void setLockStats(List<LockStatistic> lockStats) {
+        this.lockStats = lockStats;
+    }
+
+    public AuditStatistic getAuditStatistic() {
+        return auditStatistic;
+    }
+
+    public void setAuditStatistic(AuditStatistic auditStatistic) {
+        this.auditStatistic = auditStatistic;
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.model;
+
+/**
+ * Latency history of a broker collected by the background prober.
+ */
+public class BrokerHealth {
+    private final String host;
+    private final int port;
+    private final boolean reachable;
+    private final long lastLatencyMillis;
+    private final long minLatencyMillis;
+    private final long avgLatencyMillis;
+    private final long p99LatencyMillis;
+    private final int consecutiveFailures;
+    private final long lastProbeTime;
+
+    public BrokerHealth(String host, int port, boolean reachable, long lastLatencyMillis, long minLatencyMillis,
+                        long avgLatencyMillis, long p99LatencyMillis, int consecutiveFailures, long lastProbeTime) {
+        this.host = host;
+        this.port = port;
+        this.reachable = reachable;
+        this.lastLatencyMillis = lastLatencyMillis;
+        this.minLatencyMillis = minLatencyMillis;
+        this.avgLatencyMillis = avgLatencyMillis;
+        this.p99LatencyMillis = p99LatencyMillis;
+        this.consecutiveFailures = consecutiveFailures;
+        this.lastProbeTime = lastProbeTime;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isReachable() {
+        return reachable;
+    }
+
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public long getMinLatencyMillis() {
+        return minLatencyMillis;
+    }
+
+    public long getAvgLatencyMillis() {
+        return avgLatencyMillis;
+    }
+
+    public long getP99LatencyMillis() {
+        return p99LatencyMillis;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public long getLastProbeTime() {
+        return lastProbeTime;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.model;
+
+/**
+ * Listener containers of a region and the resources they hold.
+ */
+public class ListenerTopology {
+    private final int listenerContainers;
+    private final int consumerChannels;
+    private final int dedicatedConsumerThreads;
+    private final int perQueueLayoutThreads;
+    private final int sharedListenerThreads;
+
+    /**
+     * @param perQueueLayoutThreads consumer threads the one-container-per-queue layout needs for the same queues
+     * @param sharedListenerThreads size of the pool shared by the consolidated containers of all regions
+     */
+    public ListenerTopology(int listenerContainers, int consumerChannels, int dedicatedConsumerThreads,
+                            int perQueueLayoutThreads, int sharedListenerThreads) {
+        this.listenerContainers = listenerContainers;
+        this.consumerChannels = consumerChannels;
+        this.dedicatedConsumerThreads = dedicatedConsumerThreads;
+        this.perQueueLayoutThreads = perQueueLayoutThreads;
+        this.sharedListenerThreads = sharedListenerThreads;
+    }
+
+    public int getListenerContainers() {
+        return listenerContainers;
+    }
+
+    public int getConsumerChannels() {
+        return consumerChannels;
+    }
+
+    public int getDedicatedConsumerThreads() {
+        return dedicatedConsumerThreads;
+    }
+
+    public int getPerQueueLayoutThreads() {
+        return perQueueLayoutThreads;
+    }
+
+    public int getSharedListenerThreads() {
+        return sharedListenerThreads;
+    }
+}
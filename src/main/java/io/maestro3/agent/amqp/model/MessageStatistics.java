@@ -22,6 +22,12 @@ public class MessageStatistics {
     private long lastUsage;
     private long count;
     private MessageStatisticsType type;
+    private double oneMinuteRate;
+    private double fiveMinuteRate;
+    private double fifteenMinuteRate;
+    private long interArrivalP50Millis;
+    private long interArrivalP95Millis;
+    private long interArrivalP99Millis;
 
     public MessageStatistics(String queueName, MessageStatisticsType type) {
         this.queueName = queueName;
@@ -52,4 +58,51 @@ public class MessageStatistics {
         return type;
     }
 
+    public double getOneMinuteRate() {
+        return oneMinuteRate;
+    }
+
+    public void setOneMinuteRate(double oneMinuteRate) {
+        this.oneMinuteRate = oneMinuteRate;
+    }
+
+    public double getFiveMinuteRate() {
+        return fiveMinuteRate;
+    }
+
+    public void setFiveMinuteRate(double fiveMinuteRate) {
+        this.fiveMinuteRate = fiveMinuteRate;
+    }
+
+    public double getFifteenMinuteRate() {
+        return fifteenMinuteRate;
+    }
+
+    public void setFifteenMinuteRate(double fifteenMinuteRate) {
+        this.fifteenMinuteRate = fifteenMinuteRate;
+    }
+
+    public long getInterArrivalP50Millis() {
+        return interArrivalP50Millis;
+    }
+
+    public void setInterArrivalP50Millis(long interArrivalP50Millis) {
+        this.interArrivalP50Millis = interArrivalP50Millis;
+    }
+
+    public long getInterArrivalP95Millis() {
+        return interArrivalP95Millis;
+    }
+
+    public void setInterArrivalP95Millis(long interArrivalP95Millis) {
+        this.interArrivalP95Millis = interArrivalP95Millis;
+    }
+
+    public long getInterArrivalP99Millis() {
+        return interArrivalP99Millis;
+    }
+
+    public void setInterArrivalP99Millis(long interArrivalP99Millis) {
+        this.interArrivalP99Millis = interArrivalP99Millis;
+    }
 }
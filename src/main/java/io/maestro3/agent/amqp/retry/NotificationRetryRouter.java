@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.retry;
+
+import io.maestro3.agent.amqp.batch.NotificationBatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.amqp.support.AmqpHeaderMapper;
+import org.springframework.integration.amqp.support.AmqpMessageHeaderErrorMessageStrategy;
+import org.springframework.integration.amqp.support.DefaultAmqpHeaderMapper;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Error channel handler of a notification adapter: publishes the raw message of a failed notification to its
+ * next retry queue or to the parking lot with the retry count header, so the failed delivery is acknowledged
+ * instead of being dropped or hot requeued. A notification which failed after the listener thread handed it over,
+ * on a dispatcher lane, is retried from the source message of the failed message or, when the adapter does not
+ * bind it, from its payload and headers. Of a consumer batch only the messages reported by a
+ * {@link NotificationBatchException} are retried, the others were processed.
+ */
+public class NotificationRetryRouter implements MessageHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationRetryRouter.class);
+    private static final String DEFAULT_EXCHANGE = "";
+    private static final int MAX_FAILURE_LENGTH = 512;
+    private static final AmqpHeaderMapper HEADER_MAPPER = DefaultAmqpHeaderMapper.outboundMapper();
+
+    private final AmqpTemplate amqpTemplate;
+    private final NotificationRetryTopology topology;
+    private final String regionId;
+
+    public NotificationRetryRouter(AmqpTemplate amqpTemplate, NotificationRetryTopology topology, String regionId) {
+        Assert.notNull(amqpTemplate, "amqpTemplate can't be null.");
+        Assert.notNull(topology, "topology can't be null.");
+        this.amqpTemplate = amqpTemplate;
+        this.topology = topology;
+        this.regionId = regionId;
+    }
+
+    @Override
+    public void handleMessage(org.springframework.messaging.Message<?> errorMessage) {
+        Object raw = errorMessage.getHeaders().get(AmqpMessageHeaderErrorMessageStrategy.AMQP_RAW_MESSAGE);
+        Throwable failure = errorMessage.getPayload() instanceof Throwable ? (Throwable) errorMessage.getPayload() : null;
+        if (raw == null && failure instanceof MessagingException) {
+            raw = rawMessage(((MessagingException) failure).getFailedMessage());
+        }
+        if (raw instanceof Message) {
+            route((Message) raw, failure);
+        } else if (raw instanceof List) {
+            List<?> batch = (List<?>) raw;
+            NotificationBatchException batchFailure = batchFailure(failure);
+            List<Integer> failed = batchFailure == null ? null : batchFailure.getFailedIndexes();
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i) instanceof Message && (failed == null || failed.contains(i))) {
+                    route((Message) batch.get(i), batchFailure == null ? failure : batchFailure.getCause());
+                }
+            }
+        } else if (failure instanceof MessagingException) {
+            throw (MessagingException) failure;
+        } else {
+            LOG.error("Failed to process notification of region " + regionId + ", no raw message to retry", failure);
+        }
+    }
+
+    private void route(Message message, Throwable failure) {
+        MessageProperties properties = message.getMessageProperties();
+        String queue = properties.getConsumerQueue();
+        Object header = properties.getHeaders().get(NotificationRetryTopology.RETRY_COUNT_HEADER);
+        int retry = header instanceof Number ? ((Number) header).intValue() : 0;
+        properties.setHeader(NotificationRetryTopology.RETRY_COUNT_HEADER, retry + 1);
+        properties.setHeader(NotificationRetryTopology.FAILURE_HEADER, failureReason(failure));
+        String target = retry < topology.getMaxRetries()
+            ? topology.retryQueue(queue, retry)
+            : topology.parkingLotQueue(queue);
+        LOG.warn("Failed to process notification {} of region {} from {}, attempt {}, moving it to {}",
+            properties.getMessageId(), regionId, queue, retry + 1, target);
+        amqpTemplate.send(DEFAULT_EXCHANGE, target, message);
+    }
+
+    private static NotificationBatchException batchFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NotificationBatchException) {
+                return (NotificationBatchException) cause;
+            }
+        }
+        return null;
+    }
+
+    private static Message rawMessage(org.springframework.messaging.Message<?> failedMessage) {
+        if (failedMessage == null) {
+            return null;
+        }
+        Object source = failedMessage.getHeaders().get(IntegrationMessageHeaderAccessor.SOURCE_DATA);
+        if (source instanceof Message) {
+            return (Message) source;
+        }
+        Object payload = failedMessage.getPayload();
+        Object queue = failedMessage.getHeaders().get(AmqpHeaders.CONSUMER_QUEUE);
+        if (queue == null || !(payload instanceof byte[] || payload instanceof String)) {
+            return null;
+        }
+        MessageProperties properties = new MessageProperties();
+        HEADER_MAPPER.fromHeadersToRequest(failedMessage.getHeaders(), properties);
+        properties.setConsumerQueue(queue.toString());
+        byte[] body = payload instanceof byte[]
+            ? (byte[]) payload
+            : ((String) payload).getBytes(StandardCharsets.UTF_8);
+        return new Message(body, properties);
+    }
+
+    private static String failureReason(Throwable failure) {
+        if (failure == null) {
+            return "";
+        }
+        Throwable cause = failure;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        String reason = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        return reason.length() > MAX_FAILURE_LENGTH ? reason.substring(0, MAX_FAILURE_LENGTH) : reason;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.retry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Retry queues of a notification queue. A failed notification is published to the retry queue of its attempt,
+ * which dead-letters it back to the notification queue when its TTL expires, and to the parking-lot queue
+ * after the last attempt.
+ */
+public class NotificationRetryTopology {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationRetryTopology.class);
+
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+    public static final String FAILURE_HEADER = "x-failure-reason";
+
+    private static final String DEFAULT_EXCHANGE = "";
+
+    private final List<Long> retryDelaysMillis;
+
+    public NotificationRetryTopology(List<Long> retryDelaysMillis) {
+        Assert.notNull(retryDelaysMillis, "retryDelaysMillis can't be null.");
+        this.retryDelaysMillis = Collections.unmodifiableList(new ArrayList<>(retryDelaysMillis));
+    }
+
+    /**
+     * @param retryDelays comma separated delays of the retry tiers in millis, e.g. {@code 5000,30000,300000}
+     */
+    public static NotificationRetryTopology parse(String retryDelays) {
+        List<Long> delays = new ArrayList<>();
+        if (retryDelays != null) {
+            for (String delay : retryDelays.split(",")) {
+                if (!delay.trim().isEmpty()) {
+                    delays.add(Long.parseLong(delay.trim()));
+                }
+            }
+        }
+        return new NotificationRetryTopology(delays);
+    }
+
+    public int getMaxRetries() {
+        return retryDelaysMillis.size();
+    }
+
+    public String retryQueue(String queue, int retry) {
+        return queue + ".retry." + retryDelaysMillis.get(retry) + "ms";
+    }
+
+    public String parkingLotQueue(String queue) {
+        return queue + ".parking-lot";
+    }
+
+    /**
+     * Declares the retry and parking-lot queues of the queue. A queue which can not be declared, e.g. one existing
+     * with other arguments, is logged and skipped, the listeners of the region start anyway.
+     */
+    public void declare(AmqpAdmin amqpAdmin, String queue) {
+        for (int retry = 0; retry < retryDelaysMillis.size(); retry++) {
+            declareQueue(amqpAdmin, QueueBuilder.durable(retryQueue(queue, retry))
+                .ttl(retryDelaysMillis.get(retry).intValue())
+                .deadLetterExchange(DEFAULT_EXCHANGE)
+                .deadLetterRoutingKey(queue)
+                .build());
+        }
+        declareQueue(amqpAdmin, new Queue(parkingLotQueue(queue), true, false, false));
+    }
+
+    private static void declareQueue(AmqpAdmin amqpAdmin, Queue queue) {
+        try {
+            amqpAdmin.declareQueue(queue);
+        } catch (AmqpException e) {
+            LOG.error("Failed to declare retry queue {}: {}", queue.getName(), e.getMessage());
+        }
+    }
+}
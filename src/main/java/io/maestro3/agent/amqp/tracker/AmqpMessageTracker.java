@@ -20,24 +20,33 @@ package io.maestro3.agent.amqp.tracker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import io.maestro3.agent.amqp.model.AmqpRegionStatistic;
+import io.maestro3.agent.amqp.model.BrokerHealth;
 import io.maestro3.agent.amqp.model.IRabbitConfiguration;
+import io.maestro3.agent.amqp.model.ListenerTopology;
 import io.maestro3.agent.amqp.model.MessageStatistics;
 import io.maestro3.agent.amqp.model.MessageStatisticsType;
 import com.rabbitmq.client.MetricsCollector;
 import com.rabbitmq.client.impl.StandardMetricsCollector;
+import io.maestro3.agent.cadf.ICadfAuditEventSender;
+import io.maestro3.agent.dao.ILockDao;
+import io.maestro3.agent.scheduler.ISchedulerRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.util.Pair;
 import org.springframework.integration.amqp.support.AmqpHeaderMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketAddress;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Collects the statistic of a region. Agent wide statistics, e.g. of the schedulers, their locks and
+ * the audit event publishing, are reported with the statistic of every region.
+ */
 @Service
 public class AmqpMessageTracker implements IAmqpMessageTracker {
     private static final int CACHE_TIME = 60; // in sec
@@ -46,9 +55,26 @@ public class AmqpMessageTracker implements IAmqpMessageTracker {
             .expireAfterAccess(CACHE_TIME, TimeUnit.SECONDS)
             .build();
 
-    private final Map<String, Map<String, MessageStatistics>> readStatistics = new HashMap<>();
-    private final Map<String, Map<String, MessageStatistics>> writeStatistics = new HashMap<>();
-    private final Map<String, Pair<IRabbitConfiguration, StandardMetricsCollector>> collectorsMap = new HashMap<>();
+    private final Map<String, Map<String, QueueMessageCounter>> readStatistics = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, QueueMessageCounter>> writeStatistics = new ConcurrentHashMap<>();
+    private final Map<String, Pair<IRabbitConfiguration, StandardMetricsCollector>> collectorsMap = new ConcurrentHashMap<>();
+    private final Map<String, ListenerTopology> listenerTopologies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> droppedDuplicates = new ConcurrentHashMap<>();
+    private final BrokerHealthProber healthProber;
+    private final ObjectProvider<ISchedulerRegistry> schedulerRegistry;
+    private final ObjectProvider<ILockDao> lockDao;
+    private final ObjectProvider<ICadfAuditEventSender> auditEventSender;
+
+    @Autowired
+    public AmqpMessageTracker(BrokerHealthProber healthProber,
+                              ObjectProvider<ISchedulerRegistry> schedulerRegistry,
+                              ObjectProvider<ILockDao> lockDao,
+                              ObjectProvider<ICadfAuditEventSender> auditEventSender) {
+        this.healthProber = healthProber;
+        this.schedulerRegistry = schedulerRegistry;
+        this.lockDao = lockDao;
+        this.auditEventSender = auditEventSender;
+    }
 
     @Override
     public AmqpRegionStatistic collectStatistic(String regionId) {
@@ -63,20 +89,28 @@ public class AmqpMessageTracker implements IAmqpMessageTracker {
     private AmqpRegionStatistic collectStatisticForRegion(String regionId) {
         AmqpRegionStatistic statistic = collectBaseInfo(regionId);
         List<MessageStatistics> queuesStatistic = new ArrayList<>();
-        if (readStatistics.containsKey(regionId)) {
-            Map<String, MessageStatistics> readByRegion = readStatistics.get(regionId);
-            queuesStatistic.addAll(readByRegion.values());
-        }
-        if (writeStatistics.containsKey(regionId)) {
-            Map<String, MessageStatistics> writeByRegion = writeStatistics.get(regionId);
-            queuesStatistic.addAll(writeByRegion.values());
-        }
+        long now = System.currentTimeMillis();
+        snapshot(readStatistics.get(regionId), now, queuesStatistic);
+        snapshot(writeStatistics.get(regionId), now, queuesStatistic);
         statistic.setQueueStats(queuesStatistic);
+        LongAdder duplicates = droppedDuplicates.get(regionId);
+        statistic.setDroppedDuplicates(duplicates == null ? 0 : duplicates.sum());
+        schedulerRegistry.ifAvailable(registry -> statistic.setSchedulerStats(registry.collectStatistic()));
+        lockDao.ifAvailable(locks -> statistic.setLockStats(locks.getStatistics()));
+        auditEventSender.ifAvailable(sender -> statistic.setAuditStatistic(sender.collectStatistic()));
         return statistic;
     }
 
     private AmqpRegionStatistic collectBaseInfo(String regionId) {
         AmqpRegionStatistic statistic = new AmqpRegionStatistic();
+        ListenerTopology topology = listenerTopologies.get(regionId);
+        if (topology != null) {
+            statistic.setListenerContainers(topology.getListenerContainers());
+            statistic.setConsumerChannels(topology.getConsumerChannels());
+            statistic.setDedicatedConsumerThreads(topology.getDedicatedConsumerThreads());
+            statistic.setPerQueueLayoutThreads(topology.getPerQueueLayoutThreads());
+            statistic.setSharedListenerThreads(topology.getSharedListenerThreads());
+        }
         Pair<IRabbitConfiguration, StandardMetricsCollector> pair = collectorsMap.get(regionId);
         if (pair == null) {
             statistic.setOutdated(true);
@@ -94,10 +128,20 @@ public class AmqpMessageTracker implements IAmqpMessageTracker {
         statistic.setConsumedMessagesPerFiveMin(collector.getConsumedMessages().getFiveMinuteRate());
         statistic.setAllPublishedMessages(collector.getPublishedMessages().getCount());
         statistic.setPublishedMessagesPerFiveMin(collector.getPublishedMessages().getFiveMinuteRate());
-        long hostLatency = getHostLatency(configuration.getRabbitHost(), configuration.getRabbitPort());
-        statistic.setLatency(hostLatency);
-        if (hostLatency>=2000){
-            statistic.setOutdated(true);
+        BrokerHealth health = healthProber.getHealth(configuration.getRabbitHost(), configuration.getRabbitPort());
+        if (health != null) {
+            // an unreachable broker keeps the default latency, not the one of the last successful probe
+            if (health.isReachable()) {
+                statistic.setLatency(health.getLastLatencyMillis());
+            }
+            statistic.setMinLatency(health.getMinLatencyMillis());
+            statistic.setAvgLatency(health.getAvgLatencyMillis());
+            statistic.setP99Latency(health.getP99LatencyMillis());
+            statistic.setConsecutiveProbeFailures(health.getConsecutiveFailures());
+            statistic.setLastProbeTime(health.getLastProbeTime());
+            if (!health.isReachable()) {
+                statistic.setOutdated(true);
+            }
         }
         return statistic;
     }
@@ -106,59 +150,60 @@ public class AmqpMessageTracker implements IAmqpMessageTracker {
     public MetricsCollector registerMetricCollector(String regionId, IRabbitConfiguration configuration) {
         StandardMetricsCollector collector = new StandardMetricsCollector();
         collectorsMap.put(regionId, Pair.of(configuration, collector));
+        healthProber.register(configuration.getRabbitHost(), configuration.getRabbitPort());
         return collector;
     }
 
     @Override
     public void registerMetricCollector(String regionId, IRabbitConfiguration configuration, MetricsCollector collector) {
         collectorsMap.put(regionId, Pair.of(configuration, (StandardMetricsCollector) collector));
+        healthProber.register(configuration.getRabbitHost(), configuration.getRabbitPort());
     }
 
     @Override
     public void trackSend(String regionId, String queue) {
-        synchronized (writeStatistics) {
-            Map<String, MessageStatistics> statisticsMap = this.writeStatistics.get(regionId);
-            if (statisticsMap == null) {
-                statisticsMap = new HashMap<>();
-                writeStatistics.put(regionId, statisticsMap);
-            }
-            MessageStatistics statistics = statisticsMap.get(queue);
-            if (statistics == null) {
-                statisticsMap.put(queue, statistics = new MessageStatistics(queue, MessageStatisticsType.WRITE));
-            }
-            statistics.setCount(statistics.getCount() + 1);
-            statistics.setLastUsage(System.currentTimeMillis());
-        }
+        counter(writeStatistics, regionId, queue, MessageStatisticsType.WRITE).record(System.currentTimeMillis());
     }
 
     @Override
     public void trackReceive(String regionId, String queue) {
-        synchronized (readStatistics) {
-            Map<String, MessageStatistics> statisticsMap = this.readStatistics.get(regionId);
-            if (statisticsMap == null) {
-                statisticsMap = new HashMap<>();
-                readStatistics.put(regionId, statisticsMap);
-            }
-            MessageStatistics statistics = statisticsMap.get(queue);
-            if (statistics == null) {
-                statisticsMap.put(queue, statistics = new MessageStatistics(queue, MessageStatisticsType.READ));
-            }
-            statistics.setCount(statistics.getCount() + 1);
-            statistics.setLastUsage(System.currentTimeMillis());
+        counter(readStatistics, regionId, queue, MessageStatisticsType.READ).record(System.currentTimeMillis());
+    }
+
+    @Override
+    public void registerListenerTopology(String regionId, ListenerTopology topology) {
+        listenerTopologies.put(regionId, topology);
+        CACHE.invalidate(regionId);
+    }
+
+    @Override
+    public void trackDuplicate(String regionId) {
+        LongAdder duplicates = droppedDuplicates.get(regionId);
+        if (duplicates == null) {
+            duplicates = droppedDuplicates.computeIfAbsent(regionId, key -> new LongAdder());
+        }
+        duplicates.increment();
+    }
+
+    private static QueueMessageCounter counter(Map<String, Map<String, QueueMessageCounter>> statistics,
+                                               String regionId, String queue, MessageStatisticsType type) {
+        Map<String, QueueMessageCounter> byRegion = statistics.get(regionId);
+        if (byRegion == null) {
+            byRegion = statistics.computeIfAbsent(regionId, key -> new ConcurrentHashMap<>());
+        }
+        QueueMessageCounter counter = byRegion.get(queue);
+        if (counter == null) {
+            counter = byRegion.computeIfAbsent(queue, key -> new QueueMessageCounter(key, type));
         }
+        return counter;
     }
 
-    private long getHostLatency(String host, int port) {
-        SocketAddress a = new InetSocketAddress(host, port);
-        int timeoutMillis = 2000;
-        long start = System.currentTimeMillis();
-        long diff;
-        try (Socket s = new Socket()) {
-            s.connect(a, timeoutMillis);
-            diff = System.currentTimeMillis() - start;
-        } catch (Exception e) {
-            diff = 9999;
+    private static void snapshot(Map<String, QueueMessageCounter> counters, long now, List<MessageStatistics> target) {
+        if (counters == null) {
+            return;
+        }
+        for (QueueMessageCounter counter : counters.values()) {
+            target.add(counter.snapshot(now));
         }
-        return diff;
     }
 }
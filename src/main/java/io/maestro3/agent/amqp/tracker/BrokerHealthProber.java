@@ -0,0 +1,314 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.tracker;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.maestro3.agent.amqp.model.BrokerHealth;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks TCP reachability of the registered brokers in the background. All brokers are probed
+ * at once with non-blocking connects on one selector, so a round takes at most the probe timeout
+ * however many brokers are unreachable. Host names are resolved in the background, a broker whose
+ * name is not resolved yet is not probed. Statistics read only the cached results.
+ */
+@Component
+public class BrokerHealthProber {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerHealthProber.class);
+
+    @Value("${private.agent.amqp.health.probe.interval.millis:15000}")
+    private long probeIntervalMillis;
+    @Value("${private.agent.amqp.health.probe.timeout.millis:2000}")
+    private long probeTimeoutMillis;
+    @Value("${private.agent.amqp.health.probe.history:60}")
+    private int historySize;
+
+    private final Map<String, ProbeHistory> brokers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService probeScheduler;
+    private ExecutorService resolver;
+
+    @PostConstruct
+    public void start() {
+        probeScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("amqp-broker-prober")
+            .setDaemon(true)
+            .build());
+        // at most one resolution per broker is in flight, see ProbeHistory.resolving
+        resolver = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("amqp-broker-resolver-%d")
+            .setDaemon(true)
+            .build());
+        probeScheduler.scheduleWithFixedDelay(this::probeQuietly, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (probeScheduler != null) {
+            probeScheduler.shutdownNow();
+        }
+        if (resolver != null) {
+            resolver.shutdownNow();
+        }
+    }
+
+    public void register(String host, int port) {
+        if (host == null) {
+            return;
+        }
+        ProbeHistory history = brokers.computeIfAbsent(key(host, port),
+            key -> new ProbeHistory(host, port, Math.max(1, historySize)));
+        if (resolver != null && history.address == null) {
+            resolve(history);
+        }
+    }
+
+    /**
+     * @return cached health of the broker or null if it was not probed yet
+     */
+    public BrokerHealth getHealth(String host, int port) {
+        ProbeHistory history = brokers.get(key(host, port));
+        return history == null ? null : history.snapshot();
+    }
+
+    private void probeQuietly() {
+        try {
+            probeAll();
+        } catch (Exception e) {
+            LOG.error("Failed to probe AMQP brokers", e);
+        }
+    }
+
+    private void probeAll() throws IOException {
+        if (brokers.isEmpty()) {
+            return;
+        }
+        try (Selector selector = Selector.open()) {
+            int pending = 0;
+            for (ProbeHistory history : brokers.values()) {
+                resolve(history);
+                if (startProbe(selector, history)) {
+                    pending++;
+                }
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeTimeoutMillis);
+            while (pending > 0) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    break;
+                }
+                selector.select(remainingMillis);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    finishProbe(key);
+                    pending--;
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    ((PendingProbe) key.attachment()).history.failure();
+                    closeQuietly(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Refreshes the address of the broker in the background, so DNS changes are picked up
+     * without blocking the probe round.
+     */
+    private void resolve(ProbeHistory history) {
+        if (!history.resolving.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            resolver.execute(() -> {
+                try {
+                    InetSocketAddress address = new InetSocketAddress(history.host, history.port);
+                    history.address = address.isUnresolved() ? null : address;
+                    history.resolved = true;
+                } finally {
+                    history.resolving.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            history.resolving.set(false);
+        }
+    }
+
+    private boolean startProbe(Selector selector, ProbeHistory history) {
+        InetSocketAddress address = history.address;
+        if (address == null) {
+            if (history.resolved) {
+                // unresolved host
+                history.failure();
+            }
+            return false;
+        }
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            long start = System.nanoTime();
+            if (channel.connect(address)) {
+                history.success(elapsedMillis(start));
+                channel.close();
+                return false;
+            }
+            channel.register(selector, SelectionKey.OP_CONNECT, new PendingProbe(history, start));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // refused connection
+            history.failure();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return false;
+        }
+    }
+
+    private void finishProbe(SelectionKey key) {
+        PendingProbe probe = (PendingProbe) key.attachment();
+        try {
+            if (((SocketChannel) key.channel()).finishConnect()) {
+                probe.history.success(elapsedMillis(probe.start));
+            } else {
+                probe.history.failure();
+            }
+        } catch (IOException e) {
+            probe.history.failure();
+        } finally {
+            closeQuietly(key);
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    private static final class PendingProbe {
+        private final ProbeHistory history;
+        private final long start;
+
+        private PendingProbe(ProbeHistory history, long start) {
+            this.history = history;
+            this.start = start;
+        }
+    }
+
+    private static final class ProbeHistory {
+        private final String host;
+        private final int port;
+        private final long[] latencies;
+        private final AtomicBoolean resolving = new AtomicBoolean();
+        private volatile InetSocketAddress address;
+        private volatile boolean resolved;
+        private int size;
+        private int next;
+        private boolean probed;
+        private boolean reachable;
+        private long lastLatency;
+        private int consecutiveFailures;
+        private long lastProbeTime;
+
+        private ProbeHistory(String host, int port, int historySize) {
+            this.host = host;
+            this.port = port;
+            this.latencies = new long[historySize];
+        }
+
+        private synchronized void success(long latency) {
+            latencies[next] = latency;
+            next = (next + 1) % latencies.length;
+            size = Math.min(size + 1, latencies.length);
+            probed = true;
+            reachable = true;
+            lastLatency = latency;
+            consecutiveFailures = 0;
+            lastProbeTime = System.currentTimeMillis();
+        }
+
+        private synchronized void failure() {
+            probed = true;
+            reachable = false;
+            consecutiveFailures++;
+            lastProbeTime = System.currentTimeMillis();
+        }
+
+        private synchronized BrokerHealth snapshot() {
+            if (!probed) {
+                return null;
+            }
+            long min = 0;
+            long avg = 0;
+            long p99 = 0;
+            if (size > 0) {
+                long[] sorted = Arrays.copyOf(latencies, size);
+                Arrays.sort(sorted);
+                long sum = 0;
+                for (long latency : sorted) {
+                    sum += latency;
+                }
+                min = sorted[0];
+                avg = sum / size;
+                p99 = sorted[Math.min(size - 1, (int) Math.ceil(size * 0.99) - 1)];
+            }
+            return new BrokerHealth(host, port, reachable, lastLatency, min, avg, p99,
+                consecutiveFailures, lastProbeTime);
+        }
+    }
+}
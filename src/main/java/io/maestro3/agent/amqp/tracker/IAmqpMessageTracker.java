@@ -19,6 +19,7 @@ package io.maestro3.agent.amqp.tracker;
 
 import io.maestro3.agent.amqp.model.AmqpRegionStatistic;
 import io.maestro3.agent.amqp.model.IRabbitConfiguration;
+import io.maestro3.agent.amqp.model.ListenerTopology;
 import com.rabbitmq.client.MetricsCollector;
 import com.rabbitmq.client.impl.StandardMetricsCollector;
 
@@ -34,4 +35,8 @@ public interface IAmqpMessageTracker {
 
     void trackReceive(String regionId, String queue);
 
+    void registerListenerTopology(String regionId, ListenerTopology topology);
+
+    void trackDuplicate(String regionId);
+
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.amqp.tracker;
+
+import io.maestro3.agent.amqp.model.MessageStatistics;
+import io.maestro3.agent.amqp.model.MessageStatisticsType;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message counters of one queue. Recording only touches preallocated atomics:
+ * 10 second buckets in a ring covering 15 minutes for the rates and power-of-two
+ * millisecond buckets for the time between two messages.
+ * <p>
+ * A bucket reused for a new period is reset without a lock, so a message recorded
+ * concurrently with the reset may be lost, which is fine for rates.
+ */
+class QueueMessageCounter {
+
+    private static final long BUCKET_MILLIS = 10_000;
+    private static final int BUCKETS = 90;
+    private static final int HISTOGRAM_BUCKETS = 32;
+
+    private final String queueName;
+    private final MessageStatisticsType type;
+    private final LongAdder count = new LongAdder();
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray bucketPeriods = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray interArrival = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private volatile long lastUsage;
+
+    QueueMessageCounter(String queueName, MessageStatisticsType type) {
+        this.queueName = queueName;
+        this.type = type;
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketPeriods.set(i, -1);
+        }
+    }
+
+    void record(long now) {
+        count.increment();
+
+        long period = now / BUCKET_MILLIS;
+        int index = (int) (period % BUCKETS);
+        long current = bucketPeriods.get(index);
+        if (current != period && bucketPeriods.compareAndSet(index, current, period)) {
+            bucketCounts.set(index, 0);
+        }
+        bucketCounts.incrementAndGet(index);
+
+        long previous = lastUsage;
+        lastUsage = now;
+        if (previous > 0) {
+            interArrival.incrementAndGet(histogramIndex(Math.max(0, now - previous)));
+        }
+    }
+
+    MessageStatistics snapshot(long now) {
+        MessageStatistics statistics = new MessageStatistics(queueName, type);
+        statistics.setCount(count.sum());
+        statistics.setLastUsage(lastUsage);
+        statistics.setOneMinuteRate(rate(now, 1));
+        statistics.setFiveMinuteRate(rate(now, 5));
+        statistics.setFifteenMinuteRate(rate(now, 15));
+
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = interArrival.get(i);
+            total += histogram[i];
+        }
+        statistics.setInterArrivalP50Millis(percentile(histogram, total, 0.50));
+        statistics.setInterArrivalP95Millis(percentile(histogram, total, 0.95));
+        statistics.setInterArrivalP99Millis(percentile(histogram, total, 0.99));
+        return statistics;
+    }
+
+    /**
+     * Messages per second over the last complete buckets of the window, the running bucket is excluded.
+     */
+    private double rate(long now, int minutes) {
+        long currentPeriod = now / BUCKET_MILLIS;
+        int buckets = (int) (minutes * 60_000 / BUCKET_MILLIS);
+        long sum = 0;
+        for (long period = currentPeriod - buckets; period < currentPeriod; period++) {
+            int index = (int) (period % BUCKETS);
+            if (bucketPeriods.get(index) == period) {
+                sum += bucketCounts.get(index);
+            }
+        }
+        return sum * 1000d / (buckets * BUCKET_MILLIS);
+    }
+
+    /**
+     * Upper bound of the bucket holding the percentile: bucket 0 is under 1 ms, bucket i is [2^(i-1), 2^i) ms.
+     */
+    private static long percentile(long[] histogram, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (histogram.length - 1);
+    }
+
+    private static int histogramIndex(long millis) {
+        return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+}
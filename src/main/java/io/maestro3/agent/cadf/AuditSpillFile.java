@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.cadf;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Line per event file for audit events which could not be queued or published, limited to {@code maxBytes}.
+ * Replay moves the file aside first, so events spilled during the replay go to a new file.
+ */
+class AuditSpillFile {
+
+    private final Path file;
+    private final Path drainFile;
+    private final Path restFile;
+    private final long maxBytes;
+
+    AuditSpillFile(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        this.file = directory.resolve("audit-events.spill");
+        this.drainFile = directory.resolve("audit-events.spill.draining");
+        this.restFile = directory.resolve("audit-events.spill.rest");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return {@code false} if the lines do not fit into the file
+     */
+    synchronized boolean append(List<String> lines) throws IOException {
+        if (size() >= maxBytes) {
+            return false;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return !Files.exists(file) && !Files.exists(drainFile);
+    }
+
+    synchronized long size() throws IOException {
+        return sizeOf(file) + sizeOf(drainFile);
+    }
+
+    /**
+     * Streams the spilled lines to the sink until it refuses one, a file left by an interrupted replay is
+     * taken first. The refused line and the ones after it stay spilled. Called by a single thread.
+     */
+    void replay(Predicate<String> sink) throws IOException {
+        synchronized (this) {
+            if (!Files.exists(drainFile)) {
+                if (!Files.exists(file)) {
+                    return;
+                }
+                Files.move(file, drainFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        boolean refused = false;
+        try (BufferedReader reader = Files.newBufferedReader(drainFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!sink.test(line)) {
+                    keepRest(line, reader);
+                    refused = true;
+                    break;
+                }
+            }
+        }
+        if (!refused) {
+            Files.delete(drainFile);
+        }
+    }
+
+    private void keepRest(String refusedLine, BufferedReader reader) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(restFile, StandardCharsets.UTF_8)) {
+            String line = refusedLine;
+            do {
+                writer.write(line);
+                writer.newLine();
+            } while ((line = reader.readLine()) != null);
+        }
+        Files.move(restFile, drainFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+}
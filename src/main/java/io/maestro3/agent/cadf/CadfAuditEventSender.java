@@ -17,10 +17,17 @@
 
 package io.maestro3.agent.cadf;
 
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.maestro3.agent.amqp.PrivateAgentAmqpConstants;
 import io.maestro3.agent.amqp.model.SdkRabbitConfiguration;
 import io.maestro3.agent.amqp.tracker.IAmqpMessageTracker;
-import io.maestro3.sdk.exception.M3SdkException;
+import io.maestro3.agent.model.base.AuditStatistic;
+import io.maestro3.sdk.internal.util.JsonUtils;
 import io.maestro3.sdk.v3.client.IM3Client;
 import io.maestro3.sdk.v3.core.StaticPrincipal;
 import io.maestro3.sdk.v3.model.audit.AuditEventGroupType;
@@ -30,19 +37,81 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Publishes audit events asynchronously. Events are queued and grouped into batches by size
+ * or linger time, several batches are published at once, failed events are retried with jittered
+ * exponential backoff and events which can not be queued or published are spilled to a size limited
+ * local file and requeued later. The counters are reported with the agent heartbeat, see {@link #collectStatistic()}.
+ */
 @Component
 public class CadfAuditEventSender implements ICadfAuditEventSender {
 
     private static final Logger LOG = LoggerFactory.getLogger(CadfAuditEventSender.class);
+    private static final double NANOS_IN_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final TypeReference<PendingAuditEvent> PENDING_EVENT_TYPE = new TypeReference<PendingAuditEvent>() {
+    };
 
     private final IM3Client client;
     private final String auditQueue;
     private final IAmqpMessageTracker messageTracker;
 
+    @Value("${private.agent.cadf.audit.queue.capacity:10000}")
+    private int queueCapacity;
+    @Value("${private.agent.cadf.audit.batch.size:100}")
+    private int batchSize;
+    @Value("${private.agent.cadf.audit.linger.millis:200}")
+    private long lingerMillis;
+    @Value("${private.agent.cadf.audit.inflight.batches:4}")
+    private int maxInFlightBatches;
+    @Value("${private.agent.cadf.audit.retry.max.attempts:5}")
+    private int maxAttempts;
+    @Value("${private.agent.cadf.audit.retry.base.delay.millis:200}")
+    private long retryBaseDelayMillis;
+    @Value("${private.agent.cadf.audit.retry.max.delay.millis:10000}")
+    private long retryMaxDelayMillis;
+    @Value("${private.agent.cadf.audit.spill.replay.interval.millis:30000}")
+    private long spillReplayIntervalMillis;
+    @Value("${private.agent.cadf.audit.spill.dir:${user.home}/.private-agent/cadf-audit-spill}")
+    private String spillDirectory;
+    @Value("${private.agent.cadf.audit.spill.max.bytes:104857600}")
+    private long spillMaxBytes;
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Histogram batchSizes = new Histogram(new ExponentiallyDecayingReservoir());
+    private final Timer publishLatency = new Timer();
+
+    private BlockingQueue<PendingAuditEvent> queue;
+    private Semaphore inFlightBatches;
+    private ExecutorService publishers;
+    private AuditSpillFile spillFile;
+    private Thread dispatcher;
+    private volatile boolean running;
+    private long nextReplayAttempt;
+
     @Autowired
     public CadfAuditEventSender(@Qualifier("m3ServerClient") IM3Client client,
                                 SdkRabbitConfiguration configuration,
@@ -52,21 +121,247 @@ public class CadfAuditEventSender implements ICadfAuditEventSender {
         this.client = client;
     }
 
+    @PostConstruct
+    public void startPublishing() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        inFlightBatches = new Semaphore(maxInFlightBatches);
+        publishers = Executors.newFixedThreadPool(maxInFlightBatches, new ThreadFactoryBuilder()
+            .setNameFormat("cadf-audit-publisher-%d")
+            .setDaemon(true)
+            .build());
+        Path spillPath = Paths.get(spillDirectory).toAbsolutePath();
+        try {
+            spillFile = new AuditSpillFile(spillPath, spillMaxBytes);
+            LOG.info("Audit events spill directory: {}", spillPath);
+        } catch (IOException e) {
+            LOG.error("Failed to open audit spill directory " + spillPath + ", overflowing events will be dropped", e);
+        }
+        running = true;
+        dispatcher = new Thread(this::dispatch, "cadf-audit-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void stopPublishing() throws InterruptedException {
+        running = false;
+        if (dispatcher == null) {
+            return;
+        }
+        dispatcher.interrupt();
+        dispatcher.join(TimeUnit.SECONDS.toMillis(30));
+        publishers.shutdown();
+        if (!publishers.awaitTermination(30, TimeUnit.SECONDS)) {
+            publishers.shutdownNow();
+        }
+        List<PendingAuditEvent> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        spill(rest);
+    }
+
     @Override
     public void sendCadfAuditEvent(CadfAuditEvent event, List<AuditEventGroupType> groupTypes) {
+        if (event == null) {
+            return;
+        }
+        PendingAuditEvent pending = new PendingAuditEvent(event, groupTypes);
+        if (!running || !queue.offer(pending)) {
+            spill(Collections.singletonList(pending));
+        }
+    }
+
+    @Override
+    public AuditStatistic collectStatistic() {
+        AuditStatistic statistic = new AuditStatistic();
+        statistic.setQueueSize(queue == null ? 0 : queue.size());
+        statistic.setInFlightBatches(inFlightBatches == null ? 0 : maxInFlightBatches - inFlightBatches.availablePermits());
+        statistic.setPublished(publishedCount.get());
+        statistic.setRetried(retriedCount.get());
+        statistic.setSpilled(spilledCount.get());
+        statistic.setReplayed(replayedCount.get());
+        statistic.setDropped(droppedCount.get());
+        statistic.setSpillFileBytes(spillFileBytes());
+        statistic.setMeanBatchSize(batchSizes.getSnapshot().getMean());
+        Snapshot latency = publishLatency.getSnapshot();
+        statistic.setMeanPublishMillis(latency.getMean() / NANOS_IN_MILLI);
+        statistic.setP95PublishMillis(latency.get95thPercentile() / NANOS_IN_MILLI);
+        statistic.setP99PublishMillis(latency.get99thPercentile() / NANOS_IN_MILLI);
+        return statistic;
+    }
+
+    private long spillFileBytes() {
+        if (spillFile == null) {
+            return 0;
+        }
         try {
-            if (event == null) {
+            return spillFile.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void dispatch() {
+        while (running || !queue.isEmpty()) {
+            List<PendingAuditEvent> batch = new ArrayList<>(batchSize);
+            try {
+                PendingAuditEvent first = queue.poll(lingerMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    long lingerEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                    while (batch.size() < batchSize) {
+                        queue.drainTo(batch, batchSize - batch.size());
+                        long remaining = lingerEnd - System.nanoTime();
+                        if (batch.size() >= batchSize || remaining <= 0) {
+                            break;
+                        }
+                        PendingAuditEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    submit(batch);
+                }
+                replaySpillIfDue();
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    // publishers are still running, they finish the batch before the shutdown
+                    publishers.execute(() -> publish(batch));
+                }
+                if (running) {
+                    continue;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void submit(List<PendingAuditEvent> batch) throws InterruptedException {
+        inFlightBatches.acquire();
+        batchSizes.update(batch.size());
+        try {
+            publishers.execute(() -> {
+                try {
+                    publish(batch);
+                } finally {
+                    inFlightBatches.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightBatches.release();
+            spill(batch);
+        }
+    }
+
+    private void publish(List<PendingAuditEvent> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (!publishWithRetry(batch.get(i))) {
+                spill(batch.subList(i, batch.size()));
                 return;
             }
-            SaveCadfEventRequest request = SaveCadfEventRequest.builder()
-                    .withEvent(event)
-                    .withQualifier(AuditEventGroupType.getQualifier(groupTypes))
+        }
+    }
+
+    private boolean publishWithRetry(PendingAuditEvent pending) {
+        for (int attempt = 1; ; attempt++) {
+            try (Timer.Context ignored = publishLatency.time()) {
+                SaveCadfEventRequest request = SaveCadfEventRequest.builder()
+                    .withEvent(pending.getEvent())
+                    .withQualifier(AuditEventGroupType.getQualifier(pending.getGroupTypes()))
                     .build();
+                client.auditManager().saveCadfEvent(StaticPrincipal.getPrincipal(), request);
+                messageTracker.trackSend(PrivateAgentAmqpConstants.SDK_REGION, auditQueue);
+                publishedCount.incrementAndGet();
+                return true;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    LOG.error("Failed to publish audit event after {} attempts: {}", attempt, e.getMessage());
+                    return false;
+                }
+                retriedCount.incrementAndGet();
+                if (!sleep(backoffMillis(attempt))) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private long backoffMillis(int attempt) {
+        long delay = Math.min(retryMaxDelayMillis, retryBaseDelayMillis << Math.min(attempt - 1, 20));
+        // full jitter in the upper half so that publishers failing together do not retry together
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void replaySpillIfDue() {
+        if (spillFile == null || System.currentTimeMillis() < nextReplayAttempt || spillFile.isEmpty()) {
+            return;
+        }
+        nextReplayAttempt = System.currentTimeMillis() + spillReplayIntervalMillis;
+        if (queue.remainingCapacity() < queueCapacity / 2) {
+            return;
+        }
+        try {
+            spillFile.replay(line -> {
+                PendingAuditEvent pending = parse(line);
+                if (pending == null) {
+                    return true;
+                }
+                if (!queue.offer(pending)) {
+                    return false;
+                }
+                replayedCount.incrementAndGet();
+                return true;
+            });
+        } catch (IOException e) {
+            LOG.warn("Failed to replay spilled audit events: {}", e.getMessage());
+        }
+    }
 
-            client.auditManager().saveCadfEvent(StaticPrincipal.getPrincipal(), request);
-            messageTracker.trackSend(PrivateAgentAmqpConstants.SDK_REGION, auditQueue);
-        } catch (M3SdkException e) {
-            LOG.error("Failed to publish audit event", e);
+    private void spill(List<PendingAuditEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        if (spillFile == null) {
+            droppedCount.addAndGet(events.size());
+            return;
+        }
+        try {
+            List<String> lines = new ArrayList<>(events.size());
+            for (PendingAuditEvent event : events) {
+                lines.add(JsonUtils.convertObjectToJson(event));
+            }
+            if (!spillFile.append(lines)) {
+                droppedCount.addAndGet(events.size());
+                LOG.error("Audit spill file reached {} bytes, {} audit events are dropped", spillMaxBytes, events.size());
+                return;
+            }
+            spilledCount.addAndGet(events.size());
+        } catch (IOException | RuntimeException e) {
+            droppedCount.addAndGet(events.size());
+            LOG.error("Failed to spill " + events.size() + " audit events", e);
+        }
+    }
+
+    private PendingAuditEvent parse(String line) {
+        try {
+            return JsonUtils.parseJson(line, PENDING_EVENT_TYPE);
+        } catch (RuntimeException e) {
+            droppedCount.incrementAndGet();
+            LOG.error("Failed to read spilled audit event: {}", e.getMessage());
+            return null;
         }
     }
 }
@@ -17,6 +17,7 @@
 
 package io.maestro3.agent.cadf;
 
+import io.maestro3.agent.model.base.AuditStatistic;
 import io.maestro3.sdk.v3.model.audit.AuditEventGroupType;
 import io.maestro3.cadf.model.CadfAuditEvent;
 
@@ -26,4 +27,11 @@ import java.util.List;
 public interface ICadfAuditEventSender {
 
     void sendCadfAuditEvent(CadfAuditEvent event, List<AuditEventGroupType> groupTypes);
+
+    /**
+     * @return publishing statistic or {@code null} if the sender does not collect it
+     */
+    default AuditStatistic collectStatistic() {
+        return null;
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.cadf;
+
+import io.maestro3.cadf.model.CadfAuditEvent;
+import io.maestro3.sdk.v3.model.audit.AuditEventGroupType;
+
+import java.util.List;
+
+/**
+ * Audit event waiting for publishing, also the record format of the spill file.
+ */
+public class PendingAuditEvent {
+
+    private CadfAuditEvent event;
+    private List<AuditEventGroupType> groupTypes;
+
+    public PendingAuditEvent() {
+    }
+
+    public PendingAuditEvent(CadfAuditEvent event, List<AuditEventGroupType> groupTypes) {
+        this.event = event;
+        this.groupTypes = groupTypes;
+    }
+
+    public CadfAuditEvent getEvent() {
+        return event;
+    }
+
+    public void setEvent(CadfAuditEvent event) {
+        this.event = event;
+    }
+
+    public List<AuditEventGroupType> getGroupTypes() {
+        return groupTypes;
+    }
+
+    public void setGroupTypes(List<AuditEventGroupType> groupTypes) {
+        this.groupTypes = groupTypes;
+    }
+}
@@ -19,11 +19,14 @@
 package io.maestro3.agent.dao;
 
 import com.google.common.util.concurrent.AtomicLongMap;
-import io.maestro3.sdk.internal.util.StringUtils;
+import io.maestro3.agent.dao.index.IIndexContributor;
+import io.maestro3.agent.dao.index.IndexRegistry;
+import io.maestro3.agent.dao.tracker.QueryStatistic;
+import io.maestro3.agent.dao.tracker.QueryTracker;
+import io.maestro3.agent.dao.tracker.SlowQuery;
 import com.mongodb.client.result.UpdateResult;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
@@ -33,9 +36,12 @@ import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.StreamUtils;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PreDestroy;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -43,17 +49,26 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
-public abstract class BaseDao<T> {
+public abstract class BaseDao<T> implements IIndexContributor {
 
     private static final Logger LOG = LogManager.getLogger(BaseDao.class);
 
+    private static final int DEFAULT_STREAM_BATCH_SIZE = 500;
+
     private static AtomicLongMap<String> writeOperations = AtomicLongMap.create();
+    private static QueryTracker queryTracker = new QueryTracker();
 
     private final String collectionName;
     private final String collectionPreventedUpdates;
+    private final String collectionBulkFlushes;
     private final Class<T> clazz;
 
+    private volatile BulkWriteBuffer<T> bulkWriteBuffer;
+    private int streamBatchSize = DEFAULT_STREAM_BATCH_SIZE;
+
     @Autowired
     protected MongoTemplate template;
 
@@ -62,6 +77,7 @@ public abstract class BaseDao<T> {
         Assert.notNull(clazz, "clazz can't be null.");
         this.collectionName = collectionName;
         this.collectionPreventedUpdates = collectionName + "_prevented_updates_count";
+        this.collectionBulkFlushes = collectionName + "_bulk_flushes_count";
         this.clazz = clazz;
     }
 
@@ -71,10 +87,80 @@ public abstract class BaseDao<T> {
 
     public static void clearStatistics() {
         writeOperations.clear();
+        queryTracker.clear();
+    }
+
+    public static List<QueryStatistic> getQueryStatistics() {
+        return queryTracker.getStatistics();
+    }
+
+    public static List<SlowQuery> getSlowQueries() {
+        return queryTracker.getSlowQueries();
+    }
+
+    public static QueryTracker getQueryTracker() {
+        return queryTracker;
+    }
+
+    /**
+     * Lets the reactive daos report their writes into the same statistics.
+     */
+    static void recordWrites(String key, long count) {
+        writeOperations.addAndGet(key, count);
+    }
+
+    /**
+     * Switches the dao to bulk mode: {@link #save}, {@link #update}, {@link #insert}, {@link #modifyOne}
+     * and {@link #deferredUpsert} are buffered and written with one unordered bulk operation
+     * when {@code batchSize} operations are collected or every {@code flushIntervalMillis}.
+     * Reads are not affected, so pending writes are not visible until the next flush. Writes which are not
+     * buffered flush the pending ones first, so they are applied in the order they were made.
+     */
+    public synchronized void enableBulkWrites(int batchSize, long flushIntervalMillis) {
+        if (bulkWriteBuffer != null) {
+            bulkWriteBuffer.close();
+        }
+        bulkWriteBuffer = new BulkWriteBuffer<>(mongo(), collectionName, clazz, batchSize, flushIntervalMillis,
+            this::onBulkFlush);
+    }
+
+    /**
+     * Flushes pending writes and switches the dao back to one round-trip per write.
+     */
+    public synchronized void disableBulkWrites() {
+        if (bulkWriteBuffer != null) {
+            bulkWriteBuffer.close();
+            bulkWriteBuffer = null;
+        }
+    }
+
+    /**
+     * Pending writes would be lost with the flusher thread, they are written before the context closes.
+     */
+    @PreDestroy
+    public void closeBulkWrites() {
+        disableBulkWrites();
+    }
+
+    public boolean isBulkWritesEnabled() {
+        return bulkWriteBuffer != null;
+    }
+
+    /**
+     * @return number of operations written by this flush
+     */
+    public int flushBulkWrites() {
+        BulkWriteBuffer<T> buffer = bulkWriteBuffer;
+        return buffer == null ? 0 : buffer.flush();
     }
 
     public void save(T object) {
         Assert.notNull(object, "object can't be null.");
+        BulkWriteBuffer<T> buffer = bulkWriteBuffer;
+        if (buffer != null) {
+            buffer.save(object);
+            return;
+        }
         mongo().save(object, collectionName);
         writeOperations.incrementAndGet(collectionName);
     }
@@ -84,40 +170,43 @@ public abstract class BaseDao<T> {
 
         if (shouldNotBeUpdated(object)) {
             increasePreventedUpdatesCount();
+            return;
         }
 
+        BulkWriteBuffer<T> buffer = bulkWriteBuffer;
+        if (buffer != null) {
+            buffer.save(object);
+            return;
+        }
         mongo().save(object, collectionName);
         writeOperations.incrementAndGet(collectionName);
     }
 
+    /**
+     * Override to skip the write of an entity which is known to be unchanged, e.g. by a dao which is the only
+     * writer of its collection. Skipped writes are counted in {@code <collection>_prevented_updates_count}.
+     */
     protected boolean shouldNotBeUpdated(T object) {
-        try {
-
-            Document dbObject = new Document();
-            mongo().getConverter().write(object, dbObject);
-            String json = dbObject.toJson();
-            if (StringUtils.isBlank(json)) {
-                return false;
-            }
-        } catch (Exception ex) {
-            LOG.error(String.format("Failed to calculate digest for %s", collectionName), ex);
-        }
         return false;
     }
 
     public T findById(String id) {
         Assert.hasText(id, "entityID can't be null or empty.");
-        return mongo().findById(new ObjectId(id), this.clazz, collectionName);
+        ObjectId objectId = new ObjectId(id);
+        return track(Query.query(Criteria.where("_id").is(objectId)),
+            () -> mongo().findById(objectId, this.clazz, collectionName));
     }
 
     public List<T> findAll() {
-        return mongo().findAll(this.clazz, collectionName);
+        return track(new Query(), () -> mongo().findAll(this.clazz, collectionName));
     }
 
     public void delete(String id) {
         Assert.hasText(id, "id can't be null or empty.");
 
-        mongo().remove(Query.query(Criteria.where("_id").is(new ObjectId(id))), collectionName);
+        flushBulkWrites();
+        Query query = Query.query(Criteria.where("_id").is(new ObjectId(id)));
+        track(query, () -> mongo().remove(query, collectionName));
         writeOperations.incrementAndGet(collectionName);
     }
 
@@ -128,35 +217,40 @@ public abstract class BaseDao<T> {
     }
 
     protected void remove(Query query) {
-        track(query);
-        mongo().remove(query, collectionName);
+        flushBulkWrites();
+        track(query, () -> mongo().remove(query, collectionName));
         writeOperations.incrementAndGet(collectionName);
     }
 
     public long count() {
-        return mongo().count(new Query(), collectionName);
+        Query query = new Query();
+        return track(query, () -> mongo().count(query, collectionName));
     }
 
     public void insert(T object) {
         Assert.notNull(object, "object can't be null.");
+        BulkWriteBuffer<T> buffer = bulkWriteBuffer;
+        if (buffer != null) {
+            buffer.insert(object);
+            return;
+        }
         mongo().insert(object, this.collectionName);
         writeOperations.incrementAndGet(collectionName);
     }
 
     public void insertAll(Collection<? extends T> objects) {
         Assert.notEmpty(objects, "collection can't be null or empty.");
+        flushBulkWrites();
         mongo().insert(objects, collectionName);
         writeOperations.incrementAndGet(collectionName);
     }
 
     protected long count(Query query) {
-        track(query);
-        return mongo().count(query, collectionName);
+        return track(query, () -> mongo().count(query, collectionName));
     }
 
     public List<T> findAll(Query query) {
-        track(query);
-        return mongo().find(query, this.clazz, this.collectionName);
+        return track(query, () -> mongo().find(query, this.clazz, this.collectionName));
     }
 
     protected List<String> objectIdToStringCollection(List<ObjectId> dbResult) {
@@ -171,49 +265,70 @@ public abstract class BaseDao<T> {
     }
 
     protected <Z extends T> List<Z> findAll(Query query, Class<Z> clazz) {
-        track(query);
-        return mongo().find(query, clazz, this.collectionName);
+        return track(query, () -> mongo().find(query, clazz, this.collectionName));
     }
 
     protected T findAndModify(Query query, Update update) {
         Assert.notNull(update, "update can't be null.");
         Assert.isTrue(!update.getUpdateObject().keySet().isEmpty(), "update must not be empty (it will delete the document!)");
-        track(query);
+        flushBulkWrites();
         writeOperations.incrementAndGet(collectionName);
-        return mongo().findAndModify(query, update, this.clazz, this.collectionName);
+        return track(query, () -> mongo().findAndModify(query, update, this.clazz, this.collectionName));
     }
 
     protected T findOne(Query query) {
-        track(query);
-        return mongo().findOne(query, this.clazz, this.collectionName);
+        return track(query, () -> mongo().findOne(query, this.clazz, this.collectionName));
     }
 
     protected <Z extends T> Z findOne(Query query, Class<Z> clazz) {
-        track(query);
-        return mongo().findOne(query, clazz, this.collectionName);
+        return track(query, () -> mongo().findOne(query, clazz, this.collectionName));
     }
 
     public void modifyOne(Query query, Update update) {
         Assert.notNull(update, "update can't be null.");
         Assert.isTrue(!update.getUpdateObject().keySet().isEmpty(), "update must not be empty (it will delete the document!)");
-        track(query);
+        BulkWriteBuffer<T> buffer = bulkWriteBuffer;
+        if (buffer != null) {
+            buffer.updateOne(query, update);
+            return;
+        }
         writeOperations.incrementAndGet(collectionName);
-        mongo().updateFirst(query, update, this.collectionName);
+        track(query, () -> mongo().updateFirst(query, update, this.collectionName));
     }
 
     protected UpdateResult upsert(Query query, Update update) {
         Assert.notNull(update, "update can't be null.");
-        track(query);
+        flushBulkWrites();
         writeOperations.incrementAndGet(collectionName);
-        return mongo().upsert(query, update, this.collectionName);
+        return track(query, () -> mongo().upsert(query, update, this.collectionName));
+    }
+
+    /**
+     * Same as {@link #upsert(Query, Update)} but is buffered in bulk mode, so the result is not available.
+     */
+    protected void deferredUpsert(Query query, Update update) {
+        Assert.notNull(update, "update can't be null.");
+        BulkWriteBuffer<T> buffer = bulkWriteBuffer;
+        if (buffer == null) {
+            upsert(query, update);
+            return;
+        }
+        buffer.upsert(query, update);
     }
 
     public void modifyAll(Query query, Update update) {
         Assert.notNull(update, "update can't be null.");
         Assert.isTrue(!update.getUpdateObject().keySet().isEmpty(), "update must not be empty (it will delete the document!)");
-        track(query);
+        flushBulkWrites();
         writeOperations.incrementAndGet(collectionName);
-        mongo().updateMulti(query, update, this.collectionName);
+        track(query, () -> mongo().updateMulti(query, update, this.collectionName));
+    }
+
+    /**
+     * Override to declare indexes and query shapes of the collection, they are created and verified on startup.
+     */
+    @Override
+    public void registerIndexes(IndexRegistry registry) {
     }
 
     protected void ensureIndex(Index idx) {
@@ -225,8 +340,7 @@ public abstract class BaseDao<T> {
 
     @SuppressWarnings("unchecked")
     public <T> List<T> distinct(Query query, String key) {
-        track(query);
-        return (List<T>) mongo().findDistinct(query, key, this.collectionName, clazz);
+        return (List<T>) track(query, () -> mongo().findDistinct(query, key, this.collectionName, clazz));
     }
 
     protected List<String> toLowerCaseList(Collection<String> collection) {
@@ -260,12 +374,47 @@ public abstract class BaseDao<T> {
     }
 
 
+    /**
+     * Offset pagination, every page scans all the skipped documents. Prefer {@link #findAllAfter(String, int)}
+     * for deep paging.
+     */
     public List<T> findAll(int skip, int limit) {
         Query query = new Query().skip(skip).limit(limit).with(Sort.by(Sort.Direction.ASC, "_id"));
-        track(query);
         return this.findAll(query);
     }
 
+    /**
+     * Keyset pagination by {@code _id}: returns up to {@code limit} documents following {@code lastId}.
+     *
+     * @param lastId id of the last document of the previous page, {@code null} for the first page
+     */
+    public List<T> findAllAfter(String lastId, int limit) {
+        Assert.isTrue(limit > 0, "limit must be positive.");
+        Query query = new Query().limit(limit).with(Sort.by(Sort.Direction.ASC, "_id"));
+        if (lastId != null) {
+            query.addCriteria(Criteria.where("_id").gt(new ObjectId(lastId)));
+        }
+        return this.findAll(query);
+    }
+
+    /**
+     * Streams the whole collection through a server cursor, the stream must be closed after use.
+     */
+    public Stream<T> streamAll() {
+        return stream(new Query());
+    }
+
+    protected Stream<T> stream(Query query) {
+        query.cursorBatchSize(streamBatchSize);
+        CloseableIterator<T> iterator = track(query, () -> mongo().stream(query, this.clazz, this.collectionName));
+        return StreamUtils.createStreamFromIterator(iterator);
+    }
+
+    public void setStreamBatchSize(int streamBatchSize) {
+        Assert.isTrue(streamBatchSize > 0, "streamBatchSize must be positive.");
+        this.streamBatchSize = streamBatchSize;
+    }
+
     public String getCollection() {
         return this.collectionName;
     }
@@ -274,14 +423,24 @@ public abstract class BaseDao<T> {
         return clazz;
     }
 
-    private void track(Query query) {
-        //implement query tracking
+    private <R> R track(Query query, Supplier<R> operation) {
+        long start = System.nanoTime();
+        try {
+            return operation.get();
+        } finally {
+            queryTracker.record(mongo(), collectionName, query, System.nanoTime() - start);
+        }
     }
 
     protected void increasePreventedUpdatesCount() {
         writeOperations.incrementAndGet(collectionPreventedUpdates);
     }
 
+    private void onBulkFlush(int writtenOperations) {
+        writeOperations.addAndGet(collectionName, writtenOperations);
+        writeOperations.incrementAndGet(collectionBulkFlushes);
+    }
+
     protected MongoOperations mongo() {
         return this.template;
     }
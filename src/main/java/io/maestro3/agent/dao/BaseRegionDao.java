@@ -17,28 +17,109 @@
 
 package io.maestro3.agent.dao;
 
+import io.maestro3.agent.dao.cache.ChangeStreamInvalidator;
+import io.maestro3.agent.dao.cache.NearCache;
+import io.maestro3.agent.dao.index.IIndexContributor;
+import io.maestro3.agent.dao.index.IndexRegistry;
 import io.maestro3.agent.model.base.IAmqpSupportedRegion;
 import io.maestro3.agent.model.base.IRegion;
 import io.maestro3.agent.model.base.PrivateCloudType;
+import io.maestro3.agent.model.base.RegionView;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.StreamUtils;
 import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
-public abstract class BaseRegionDao<R extends IRegion> implements IRegionRepository<R> {
+public abstract class BaseRegionDao<R extends IRegion> implements IRegionRepository<R>, IIndexContributor {
     protected static final String COLLECTION = "Regions";
+    protected static final int DEFAULT_STREAM_BATCH_SIZE = 100;
+    private static final int CACHE_MAX_SIZE = 1000;
+    private static final long CACHE_MAX_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /**
+     * Writes through the template itself bypass the near cache, they go through {@link #write}
+     * or call {@link #invalidateCache()} afterwards.
+     */
     protected MongoTemplate template;
     protected PrivateCloudType cloudType;
+    protected int streamBatchSize = DEFAULT_STREAM_BATCH_SIZE;
+    protected final NearCache<IRegion> cache;
+    private final ChangeStreamInvalidator cacheInvalidator;
+
+    @Value("${private.agent.repository.cache.ttl.millis:60000}")
+    private long cacheTtlMillis;
+    @Value("${private.agent.repository.cache.change.stream.enabled:true}")
+    private boolean changeStreamEnabled;
 
     @Autowired
     public BaseRegionDao(MongoTemplate template, PrivateCloudType cloudType) {
         this.template = template;
         this.cloudType = cloudType;
+        this.cache = new NearCache<>(COLLECTION + ":" + cloudType, CACHE_MAX_SIZE, CACHE_MAX_TTL_MILLIS,
+            TimeUnit.MINUTES.toMillis(1), template.getConverter(), IRegion.class);
+        this.cacheInvalidator = ChangeStreamInvalidator.forCollection(template, COLLECTION);
+    }
+
+    @PostConstruct
+    public void startCacheInvalidation() {
+        cache.setTtlMillis(cacheTtlMillis);
+        cacheInvalidator.register(cache);
+        if (changeStreamEnabled) {
+            cacheInvalidator.start();
+        }
+    }
+
+    @PreDestroy
+    public void stopCacheInvalidation() {
+        cacheInvalidator.unregister(cache);
+    }
+
+    /**
+     * Runs a write on the collection and drops the cached documents of every cloud.
+     */
+    protected <X> X write(Function<MongoTemplate, X> operation) {
+        try {
+            return operation.apply(template);
+        } finally {
+            invalidateCache();
+        }
+    }
+
+    /**
+     * Drops the cached documents of every cloud.
+     */
+    protected void invalidateCache() {
+        cacheInvalidator.invalidateAll();
+    }
+
+    @Override
+    public void registerIndexes(IndexRegistry registry) {
+        registry.index(COLLECTION, new Index()
+            .on("cloud", Sort.Direction.ASC)
+            .on("regionAlias", Sort.Direction.ASC));
+        registry.index(COLLECTION, new Index()
+            .on("rabbitNotificationConfig", Sort.Direction.ASC)
+            .sparse());
+
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("cloud").is(IndexRegistry.PROBE_VALUE)));
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("regionAlias").is(IndexRegistry.PROBE_VALUE)
+            .and("cloud").is(IndexRegistry.PROBE_VALUE)));
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("rabbitNotificationConfig").exists(true)));
     }
 
     @Override
@@ -51,16 +132,20 @@ public abstract class BaseRegionDao<R extends IRegion> implements IRegionReposit
 
     @Override
     public R findByIdInCloud(String id) {
-        Criteria criteria = Criteria.where("_id").is(id)
-                .and("cloud").is(cloudType.toString());
-        return (R) template.findOne(Query.query(criteria), IRegion.class, COLLECTION);
+        return (R) cache.get("idInCloud:" + id, () -> {
+            Criteria criteria = Criteria.where("_id").is(id)
+                    .and("cloud").is(cloudType.toString());
+            return template.findOne(Query.query(criteria), Document.class, COLLECTION);
+        });
     }
 
     @Override
     public R findByAliasInCloud(String alias) {
-        Criteria criteria = Criteria.where("regionAlias").is(alias)
-                .and("cloud").is(cloudType.toString());
-        return (R) template.findOne(Query.query(criteria), IRegion.class, COLLECTION);
+        return (R) cache.get("aliasInCloud:" + alias, () -> {
+            Criteria criteria = Criteria.where("regionAlias").is(alias)
+                    .and("cloud").is(cloudType.toString());
+            return template.findOne(Query.query(criteria), Document.class, COLLECTION);
+        });
     }
 
     @Override
@@ -71,25 +156,29 @@ public abstract class BaseRegionDao<R extends IRegion> implements IRegionReposit
 
     @Override
     public IRegion findByRegionAlias(String regionAlias) {
-        Criteria criteria = Criteria.where("regionAlias").is(regionAlias);
-        return template.findOne(Query.query(criteria), IRegion.class, COLLECTION);
+        return cache.get("alias:" + regionAlias, () -> {
+            Criteria criteria = Criteria.where("regionAlias").is(regionAlias);
+            return template.findOne(Query.query(criteria), Document.class, COLLECTION);
+        });
     }
 
     @Override
     public void delete(R cloud) {
         Criteria criteria = Criteria.where("_id").is(cloud.getId());
-        template.remove(Query.query(criteria), COLLECTION);
+        write(t -> t.remove(Query.query(criteria), COLLECTION));
     }
 
     @Override
     public void save(R cloud) {
-        template.save(cloud, COLLECTION);
+        write(t -> t.save(cloud, COLLECTION));
     }
 
     @Override
     public IRegion findById(String id) {
-        Criteria criteria = Criteria.where("_id").is(id);
-        return template.findOne(Query.query(criteria), IRegion.class, COLLECTION);
+        return cache.get("id:" + id, () -> {
+            Criteria criteria = Criteria.where("_id").is(id);
+            return template.findOne(Query.query(criteria), Document.class, COLLECTION);
+        });
     }
 
     @Override
@@ -97,6 +186,34 @@ public abstract class BaseRegionDao<R extends IRegion> implements IRegionReposit
         return template.findAll(IRegion.class, COLLECTION);
     }
 
+    @Override
+    public List<IRegion> findAllAfter(String lastId, int limit) {
+        Assert.isTrue(limit > 0, "limit must be positive.");
+        Query query = new Query().limit(limit).with(Sort.by(Sort.Direction.ASC, "_id"));
+        if (lastId != null) {
+            query.addCriteria(Criteria.where("_id").gt(lastId));
+        }
+        return template.find(query, IRegion.class, COLLECTION);
+    }
+
+    @Override
+    public Stream<IRegion> streamAll() {
+        Query query = new Query().cursorBatchSize(streamBatchSize);
+        return StreamUtils.createStreamFromIterator(template.stream(query, IRegion.class, COLLECTION));
+    }
+
+    @Override
+    public List<RegionView> findAllViews() {
+        Query query = new Query();
+        query.fields().include("regionAlias").include("managementAvailable").include("cloud");
+        return template.find(query, RegionView.class, COLLECTION);
+    }
+
+    public void setStreamBatchSize(int streamBatchSize) {
+        Assert.isTrue(streamBatchSize > 0, "streamBatchSize must be positive.");
+        this.streamBatchSize = streamBatchSize;
+    }
+
     @Override
     public List<IRegion> findByCloud(String cloudName) {
         Criteria criteria = Criteria.where("cloud").is(cloudName);
@@ -17,30 +17,122 @@
 
 package io.maestro3.agent.dao;
 
+import io.maestro3.agent.dao.cache.ChangeStreamInvalidator;
+import io.maestro3.agent.dao.cache.NearCache;
+import io.maestro3.agent.dao.index.IIndexContributor;
+import io.maestro3.agent.dao.index.IndexRegistry;
 import io.maestro3.agent.model.base.ITenant;
 import io.maestro3.agent.model.base.PrivateCloudType;
+import io.maestro3.agent.model.base.TenantView;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.StreamUtils;
+import org.springframework.util.Assert;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public abstract class BaseTenantDao<TENANT extends ITenant> implements ITenantRepository<TENANT> {
+public abstract class BaseTenantDao<TENANT extends ITenant> implements ITenantRepository<TENANT>, IIndexContributor {
     protected static final String COLLECTION = "Tenants";
+    protected static final int DEFAULT_STREAM_BATCH_SIZE = 500;
+    private static final int CACHE_MAX_SIZE = 10_000;
+    private static final long CACHE_MAX_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /**
+     * Writes through the template itself bypass the near cache, they go through {@link #write}
+     * or call {@link #invalidateCache()} afterwards.
+     */
     protected MongoTemplate template;
     protected PrivateCloudType cloudType;
+    protected int streamBatchSize = DEFAULT_STREAM_BATCH_SIZE;
+    protected final NearCache<ITenant> cache;
+    private final ChangeStreamInvalidator cacheInvalidator;
+
+    @Value("${private.agent.repository.cache.ttl.millis:60000}")
+    private long cacheTtlMillis;
+    @Value("${private.agent.repository.cache.change.stream.enabled:true}")
+    private boolean changeStreamEnabled;
 
     public BaseTenantDao(MongoTemplate template, PrivateCloudType cloudType) {
         this.template = template;
         this.cloudType = cloudType;
+        this.cache = new NearCache<>(COLLECTION + ":" + cloudType, CACHE_MAX_SIZE, CACHE_MAX_TTL_MILLIS,
+            TimeUnit.MINUTES.toMillis(1), template.getConverter(), ITenant.class);
+        this.cacheInvalidator = ChangeStreamInvalidator.forCollection(template, COLLECTION);
+    }
+
+    @PostConstruct
+    public void startCacheInvalidation() {
+        cache.setTtlMillis(cacheTtlMillis);
+        cacheInvalidator.register(cache);
+        if (changeStreamEnabled) {
+            cacheInvalidator.start();
+        }
+    }
+
+    @PreDestroy
+    public void stopCacheInvalidation() {
+        cacheInvalidator.unregister(cache);
+    }
+
+    /**
+     * Runs a write on the collection and drops the cached documents of every cloud.
+     */
+    protected <X> X write(Function<MongoTemplate, X> operation) {
+        try {
+            return operation.apply(template);
+        } finally {
+            invalidateCache();
+        }
+    }
+
+    /**
+     * Drops the cached documents of every cloud.
+     */
+    protected void invalidateCache() {
+        cacheInvalidator.invalidateAll();
+    }
+
+    @Override
+    public void registerIndexes(IndexRegistry registry) {
+        registry.index(COLLECTION, new Index()
+            .on("regionId", Sort.Direction.ASC)
+            .on("cloud", Sort.Direction.ASC));
+        registry.index(COLLECTION, new Index()
+            .on("tenantAlias", Sort.Direction.ASC)
+            .on("regionId", Sort.Direction.ASC)
+            .on("cloud", Sort.Direction.ASC));
+        registry.index(COLLECTION, new Index()
+            .on("cloud", Sort.Direction.ASC));
+
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("regionId").is(IndexRegistry.PROBE_VALUE)
+            .and("cloud").is(IndexRegistry.PROBE_VALUE)));
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("tenantAlias").is(IndexRegistry.PROBE_VALUE)
+            .and("regionId").is(IndexRegistry.PROBE_VALUE)
+            .and("cloud").is(IndexRegistry.PROBE_VALUE)));
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("tenantAlias").is(IndexRegistry.PROBE_VALUE)
+            .and("regionId").is(IndexRegistry.PROBE_VALUE)));
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("regionId").is(IndexRegistry.PROBE_VALUE)));
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("cloud").is(IndexRegistry.PROBE_VALUE)));
     }
 
     @Override
     public ITenant findByTenantAliasAndRegionId(String tenantAlias, String regionId) {
-        Criteria criteria = Criteria.where("tenantAlias").is(tenantAlias)
-            .and("regionId").is(regionId);
-        return template.findOne(Query.query(criteria), ITenant.class, COLLECTION);
+        return cache.get("aliasAndRegion:" + tenantAlias + ":" + regionId, () -> {
+            Criteria criteria = Criteria.where("tenantAlias").is(tenantAlias)
+                .and("regionId").is(regionId);
+            return template.findOne(Query.query(criteria), Document.class, COLLECTION);
+        });
     }
 
     @Override
@@ -48,6 +140,31 @@ public abstract class BaseTenantDao<TENANT extends ITenant> implements ITenantRe
         return template.findAll(ITenant.class, COLLECTION);
     }
 
+    @Override
+    public List<ITenant> findAllAfter(String lastId, int limit) {
+        Assert.isTrue(limit > 0, "limit must be positive.");
+        Query query = new Query().limit(limit).with(Sort.by(Sort.Direction.ASC, "_id"));
+        if (lastId != null) {
+            query.addCriteria(Criteria.where("_id").gt(lastId));
+        }
+        return template.find(query, ITenant.class, COLLECTION);
+    }
+
+    @Override
+    public Stream<ITenant> streamAll() {
+        Query query = new Query().cursorBatchSize(streamBatchSize);
+        return StreamUtils.createStreamFromIterator(template.stream(query, ITenant.class, COLLECTION));
+    }
+
+    @Override
+    public List<TenantView> findViewsExcludingClouds(Collection<PrivateCloudType> excludedClouds) {
+        Query query = excludedClouds.isEmpty()
+            ? new Query()
+            : Query.query(Criteria.where("cloud").nin(excludedClouds));
+        query.fields().include("tenantAlias").include("regionId").include("cloud").include("tenantState");
+        return template.find(query, TenantView.class, COLLECTION);
+    }
+
     @Override
     public List<ITenant> findForCloud(String cloudType) {
         Criteria criteria = Criteria.where("cloud").is(cloudType);
@@ -62,12 +179,12 @@ public abstract class BaseTenantDao<TENANT extends ITenant> implements ITenantRe
 
     @Override
     public void save(ITenant tenant) {
-        template.save(tenant, COLLECTION);
+        write(t -> t.save(tenant, COLLECTION));
     }
 
     @Override
     public void delete(TENANT tenant) {
-        template.remove(tenant, COLLECTION);
+        write(t -> t.remove(tenant, COLLECTION));
     }
 
     @Override
@@ -90,12 +207,26 @@ public abstract class BaseTenantDao<TENANT extends ITenant> implements ITenantRe
     }
 
     @Override
-    public TENANT findByTenantAliasAndRegionIdInCloud(String tenantAlias, String regionId) {
+    public Stream<TENANT> streamAllInCloud() {
+        Query query = Query.query(Criteria.where("cloud").is(cloudType.toString()))
+            .cursorBatchSize(streamBatchSize);
+        return StreamUtils.createStreamFromIterator(template.stream(query, ITenant.class, COLLECTION))
+            .map(t -> (TENANT) t);
+    }
 
-        Criteria criteria = Criteria.where("tenantAlias").is(tenantAlias)
-            .and("regionId").is(regionId)
-            .and("cloud").is(cloudType.toString());
-        ITenant one = template.findOne(Query.query(criteria), ITenant.class, COLLECTION);
+    public void setStreamBatchSize(int streamBatchSize) {
+        Assert.isTrue(streamBatchSize > 0, "streamBatchSize must be positive.");
+        this.streamBatchSize = streamBatchSize;
+    }
+
+    @Override
+    public TENANT findByTenantAliasAndRegionIdInCloud(String tenantAlias, String regionId) {
+        ITenant one = cache.get("aliasAndRegionInCloud:" + tenantAlias + ":" + regionId, () -> {
+            Criteria criteria = Criteria.where("tenantAlias").is(tenantAlias)
+                .and("regionId").is(regionId)
+                .and("cloud").is(cloudType.toString());
+            return template.findOne(Query.query(criteria), Document.class, COLLECTION);
+        });
         return (TENANT) one;
     }
 
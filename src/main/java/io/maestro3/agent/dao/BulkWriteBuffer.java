@@ -0,0 +1,294 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+import org.springframework.util.Assert;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Collects writes of a single collection and sends them as one unordered bulk operation.
+ * <p>
+ * Saves are coalesced by document id (the last one wins), updates and upserts are coalesced by query:
+ * two {@code $set}-only updates of the same query are merged. Any other collision on the same query or
+ * on the same {@code _id}, also between an insert, a save and an update, flushes the pending batch first
+ * because an unordered bulk does not guarantee the order of operations on the same document.
+ * The batch is flushed when it reaches {@code batchSize} operations or every {@code flushIntervalMillis}.
+ * <p>
+ * A batch that could not be sent is kept and retried by the next flush; while it is pending new writes
+ * are rejected with the flush error instead of growing the buffer. Writes rejected by the server
+ * (duplicate key, validation) are dropped, the error is thrown to the flushing caller.
+ */
+class BulkWriteBuffer<T> {
+
+    private static final Logger LOG = LogManager.getLogger(BulkWriteBuffer.class);
+
+    private static final String ID = "_id";
+    private static final String SET = "$set";
+    private static final String INSERT_OWNER = "insert";
+    private static final String REPLACE_OWNER = "replace";
+    private static final String UPDATE_OWNER = "update:";
+    private static final String UPSERT_OWNER = "upsert:";
+
+    private final MongoOperations mongo;
+    private final String collectionName;
+    private final Class<T> clazz;
+    private final int batchSize;
+    private final IntConsumer flushListener;
+    private final ScheduledExecutorService flushScheduler;
+
+    private final Map<Object, Document> inserts = new LinkedHashMap<>();
+    private final Map<Object, Document> replacements = new LinkedHashMap<>();
+    private final Map<String, Pair<Query, Update>> updates = new LinkedHashMap<>();
+    private final Map<String, Pair<Query, Update>> upserts = new LinkedHashMap<>();
+    /**
+     * Pending operation of every document id, to detect an insert, a save and an update of the same document.
+     */
+    private final Map<Object, String> pendingIds = new HashMap<>();
+
+    BulkWriteBuffer(MongoOperations mongo, String collectionName, Class<T> clazz,
+                    int batchSize, long flushIntervalMillis, IntConsumer flushListener) {
+        Assert.notNull(mongo, "mongo can't be null.");
+        Assert.isTrue(batchSize > 0, "batchSize must be positive.");
+        Assert.isTrue(flushIntervalMillis > 0, "flushIntervalMillis must be positive.");
+        this.mongo = mongo;
+        this.collectionName = collectionName;
+        this.clazz = clazz;
+        this.batchSize = batchSize;
+        this.flushListener = flushListener;
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("bulk-writer-" + collectionName)
+            .setDaemon(true)
+            .build());
+        this.flushScheduler.scheduleWithFixedDelay(this::flushQuietly,
+            flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void save(T object) {
+        Document document = toDocument(object);
+        Object id = document.get(ID);
+        if (id == null) {
+            insertNew(object, document);
+            return;
+        }
+        prepare(id, REPLACE_OWNER);
+        replacements.put(id, document);
+        pendingIds.put(id, REPLACE_OWNER);
+        flushIfFull();
+    }
+
+    synchronized void insert(T object) {
+        Document document = toDocument(object);
+        Object id = document.get(ID);
+        if (id == null) {
+            insertNew(object, document);
+            return;
+        }
+        prepare(id, INSERT_OWNER);
+        inserts.put(id, document);
+        pendingIds.put(id, INSERT_OWNER);
+        flushIfFull();
+    }
+
+    synchronized void updateOne(Query query, Update update) {
+        coalesce(updates, upserts, UPDATE_OWNER, query, update);
+    }
+
+    synchronized void upsert(Query query, Update update) {
+        coalesce(upserts, updates, UPSERT_OWNER, query, update);
+    }
+
+    synchronized int size() {
+        return inserts.size() + replacements.size() + updates.size() + upserts.size();
+    }
+
+    synchronized int flush() {
+        int pending = size();
+        if (pending == 0) {
+            return 0;
+        }
+        BulkOperations operations = mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, clazz, collectionName);
+        inserts.values().forEach(operations::insert);
+        replacements.forEach((id, document) -> operations.replaceOne(Query.query(Criteria.where(ID).is(id)),
+            document, FindAndReplaceOptions.options().upsert()));
+        updates.values().forEach(pair -> operations.updateOne(pair.getFirst(), pair.getSecond()));
+        upserts.values().forEach(pair -> operations.upsert(pair.getFirst(), pair.getSecond()));
+
+        try {
+            operations.execute();
+        } catch (BulkOperationException ex) {
+            // the server applied the batch except the rejected documents, a retry would be rejected again
+            clear();
+            flushListener.accept(pending - ex.getErrors().size());
+            throw ex;
+        } catch (RuntimeException ex) {
+            // the batch may not have reached the server, it is kept for the next flush
+            throw ex;
+        }
+        clear();
+        flushListener.accept(pending);
+        return pending;
+    }
+
+    void close() {
+        flushScheduler.shutdown();
+        synchronized (this) {
+            int pending = size();
+            try {
+                flush();
+            } catch (Exception ex) {
+                LOG.error(String.format("Dropped %s bulk writes for %s on close", pending, collectionName), ex);
+                clear();
+            }
+        }
+    }
+
+    private void insertNew(T object, Document document) {
+        // same as MongoTemplate: generate the id on the client and set it back to the entity
+        ObjectId id = new ObjectId();
+        document.put(ID, id);
+        MongoPersistentEntity<?> entity = mongo.getConverter().getMappingContext()
+            .getPersistentEntity(object.getClass());
+        MongoPersistentProperty idProperty = entity == null ? null : entity.getIdProperty();
+        if (idProperty != null) {
+            PersistentPropertyAccessor<T> accessor = entity.getPropertyAccessor(object);
+            accessor.setProperty(idProperty,
+                mongo.getConverter().getConversionService().convert(id, idProperty.getType()));
+        }
+        makeRoom();
+        inserts.put(id, document);
+        pendingIds.put(id, INSERT_OWNER);
+        flushIfFull();
+    }
+
+    private void coalesce(Map<String, Pair<Query, Update>> target, Map<String, Pair<Query, Update>> other,
+                          String ownerPrefix, Query query, Update update) {
+        String key = query.getQueryObject().toString();
+        Object id = targetId(query);
+        String owner = ownerPrefix + key;
+        if (other.containsKey(key)) {
+            flush();
+        }
+        Pair<Query, Update> pending = target.get(key);
+        if (pending != null && isSetOnly(pending.getSecond()) && isSetOnly(update)) {
+            target.put(key, Pair.of(query, mergeSets(pending.getSecond(), update)));
+            return;
+        }
+        if (pending != null) {
+            flush();
+        }
+        if (id != null) {
+            prepare(id, owner);
+        } else {
+            makeRoom();
+        }
+        target.put(key, Pair.of(query, update));
+        if (id != null) {
+            pendingIds.put(id, owner);
+        }
+        flushIfFull();
+    }
+
+    /**
+     * Flushes the pending batch when the document already has an operation it can't be coalesced with.
+     */
+    private void prepare(Object id, String owner) {
+        String pendingOwner = pendingIds.get(id);
+        if (pendingOwner != null && (!pendingOwner.equals(owner) || INSERT_OWNER.equals(owner))) {
+            flush();
+        }
+        makeRoom();
+    }
+
+    /**
+     * Retries a batch which failed to flush before accepting more writes, so the failure reaches the caller.
+     */
+    private void makeRoom() {
+        if (size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private Object targetId(Query query) {
+        Object id = query.getQueryObject().get(ID);
+        return id instanceof Document ? null : id;
+    }
+
+    private boolean isSetOnly(Update update) {
+        Document updateObject = update.getUpdateObject();
+        return updateObject.size() == 1 && updateObject.containsKey(SET);
+    }
+
+    private Update mergeSets(Update first, Update second) {
+        Update merged = new Update();
+        ((Document) first.getUpdateObject().get(SET)).forEach(merged::set);
+        ((Document) second.getUpdateObject().get(SET)).forEach(merged::set);
+        return merged;
+    }
+
+    private Document toDocument(T object) {
+        Document document = new Document();
+        mongo.getConverter().write(object, document);
+        return document;
+    }
+
+    private void clear() {
+        inserts.clear();
+        replacements.clear();
+        updates.clear();
+        upserts.clear();
+        pendingIds.clear();
+    }
+
+    private void flushIfFull() {
+        if (size() >= batchSize) {
+            flushQuietly();
+        }
+    }
+
+    private synchronized void flushQuietly() {
+        int pending = size();
+        try {
+            flush();
+        } catch (Exception ex) {
+            LOG.error(String.format("Failed to flush %s bulk writes for %s", pending, collectionName), ex);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao;
+
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only local journal of BSON documents backed by memory-mapped segment files.
+ * <p>
+ * Each record is its length followed by the document bytes, a zero length marks the end of a segment.
+ * Segments are replayed in the order they were written and deleted once every record was accepted.
+ * The length of an accepted record is negated in place, so a replay interrupted by a failure or a crash
+ * resumes after the last accepted batch; a batch accepted right before a crash may be replayed again, so the
+ * consumer must be idempotent.
+ * <p>
+ * A segment stays mapped until its buffer is garbage collected: unmapping it explicitly needs an internal JDK
+ * API, and a buffer still in use by another thread would crash the JVM once unmapped.
+ */
+class DocumentJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentJournal.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private long nextSegment;
+    private Path activeSegment;
+    private MappedByteBuffer activeBuffer;
+
+    DocumentJournal(Path directory, int segmentSize) {
+        Assert.notNull(directory, "directory can't be null.");
+        Assert.isTrue(segmentSize > 2 * LENGTH_BYTES, "segmentSize is too small.");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = listSegments();
+            this.nextSegment = segments.isEmpty() ? 0 : sequenceOf(segments.get(segments.size() - 1)) + 1;
+            if (!segments.isEmpty()) {
+                LOG.warn("Found {} not replayed journal segments in {}", segments.size(), directory);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to open journal " + directory, ex);
+        }
+    }
+
+    synchronized void append(List<RawBsonDocument> documents) throws IOException {
+        for (RawBsonDocument document : documents) {
+            ByteBuffer bytes = document.getByteBuffer().asNIO();
+            int length = bytes.remaining();
+            if (activeBuffer == null || activeBuffer.remaining() < 2 * LENGTH_BYTES + length) {
+                roll(2 * LENGTH_BYTES + length);
+            }
+            activeBuffer.putInt(length);
+            activeBuffer.put(bytes);
+        }
+        activeBuffer.force();
+    }
+
+    synchronized boolean isEmpty() {
+        return (activeBuffer == null || activeBuffer.position() == 0) && closedSegments().isEmpty();
+    }
+
+    /**
+     * Replays the journaled documents in order. Appends are not blocked while the closed segments are replayed;
+     * the active segment is closed and replayed only once the closed ones were accepted and it holds documents.
+     *
+     * @param batchSize max number of documents passed to the consumer at once
+     * @param consumer  accepts a batch or throws, the replay resumes after the last accepted batch next time
+     * @return number of replayed documents
+     */
+    int replay(int batchSize, Consumer<List<RawBsonDocument>> consumer) throws IOException {
+        int replayed = 0;
+        while (true) {
+            List<Path> segments;
+            synchronized (this) {
+                segments = closedSegments();
+                if (segments.isEmpty()) {
+                    if (activeBuffer == null || activeBuffer.position() == 0) {
+                        return replayed;
+                    }
+                    closeActive();
+                    continue;
+                }
+            }
+            for (Path segment : segments) {
+                replayed += replaySegment(segment, batchSize, consumer);
+                Files.delete(segment);
+            }
+        }
+    }
+
+    synchronized void close() {
+        closeActive();
+    }
+
+    private int replaySegment(Path segment, int batchSize, Consumer<List<RawBsonDocument>> consumer) throws IOException {
+        int replayed = 0;
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+        List<Integer> positions = new ArrayList<>(batchSize);
+        while (buffer.remaining() >= LENGTH_BYTES) {
+            int position = buffer.position();
+            int length = buffer.getInt();
+            if (length < 0 && -length <= buffer.remaining()) {
+                // accepted by a previous replay
+                buffer.position(buffer.position() - length);
+                continue;
+            }
+            if (length == 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            batch.add(new RawBsonDocument(bytes));
+            positions.add(position);
+            if (batch.size() >= batchSize) {
+                replayed += accept(buffer, batch, positions, consumer);
+                batch = new ArrayList<>(batchSize);
+                positions = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            replayed += accept(buffer, batch, positions, consumer);
+        }
+        return replayed;
+    }
+
+    private int accept(MappedByteBuffer buffer, List<RawBsonDocument> batch, List<Integer> positions,
+                       Consumer<List<RawBsonDocument>> consumer) {
+        consumer.accept(batch);
+        for (int position : positions) {
+            buffer.putInt(position, -buffer.getInt(position));
+        }
+        buffer.force();
+        return batch.size();
+    }
+
+    private void roll(int minSize) throws IOException {
+        closeActive();
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(segment,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            activeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, minSize));
+        }
+        activeSegment = segment;
+    }
+
+    private void closeActive() {
+        if (activeBuffer != null) {
+            activeBuffer.force();
+            LOG.info("Closed journal segment {} with {} bytes", activeSegment, activeBuffer.position());
+        }
+        activeBuffer = null;
+        activeSegment = null;
+    }
+
+    private synchronized List<Path> closedSegments() {
+        List<Path> segments = listSegmentsQuietly();
+        if (activeSegment != null) {
+            segments.remove(activeSegment);
+        }
+        return segments;
+    }
+
+    private List<Path> listSegmentsQuietly() {
+        try {
+            return listSegments();
+        } catch (IOException ex) {
+            LOG.error("Failed to list journal segments in " + directory, ex);
+            return new ArrayList<>();
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> {
+                    String name = path.getFileName().toString();
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                })
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
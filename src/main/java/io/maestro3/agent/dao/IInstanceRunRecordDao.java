@@ -18,6 +18,7 @@
 package io.maestro3.agent.dao;
 
 import io.maestro3.agent.model.base.InstanceRunRecord;
+import io.maestro3.agent.model.base.InstanceRunStatistic;
 
 import java.util.List;
 
@@ -28,4 +29,12 @@ public interface IInstanceRunRecordDao {
     void save(InstanceRunRecord keyPair);
 
     void deleteAll();
+
+    /**
+     * Start duration statistic over the last {@code windowMillis}, rounded down to the rollup bucket.
+     *
+     * @param tenant  tenant name or {@code null} for all tenants of the region
+     * @param imageId image id or {@code null} for all images, requires a tenant
+     */
+    InstanceRunStatistic getStatistic(String region, String tenant, String imageId, long windowMillis);
 }
@@ -18,6 +18,7 @@
 package io.maestro3.agent.dao;
 
 import io.maestro3.agent.model.base.Lock;
+import io.maestro3.agent.model.base.LockStatistic;
 import io.maestro3.agent.model.base.PrivateCloudType;
 
 import java.util.List;
@@ -29,4 +30,20 @@ public interface ILockDao {
     boolean save(Lock keyPair);
 
     void delete(PrivateCloudType cloudType, String lockName);
+
+    /**
+     * Takes the lease of the lock if it is free or expired.
+     *
+     * @return the lease with its fencing token or {@code null} if the lock is held by someone else
+     */
+    Lock acquire(PrivateCloudType cloudType, String lockName, long leaseMillis);
+
+    /**
+     * Extends the lease, {@code false} means the lease was lost and the fencing token is stale.
+     */
+    boolean renew(Lock lock, long leaseMillis);
+
+    void release(Lock lock);
+
+    List<LockStatistic> getStatistics();
 }
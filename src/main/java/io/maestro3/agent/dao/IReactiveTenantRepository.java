@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao;
+
+import io.maestro3.agent.model.base.ITenant;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+/**
+ * Non-blocking tenant lookups across all clouds, see {@link ITenantRepository}.
+ */
+public interface IReactiveTenantRepository {
+
+    Mono<ITenant> save(ITenant tenant);
+
+    Mono<Void> delete(String id);
+
+    Flux<ITenant> findAll();
+
+    Flux<ITenant> findAllAfter(String lastId, int limit);
+
+    Mono<ITenant> findByTenantAliasAndRegionId(String tenantAlias, String regionId);
+
+    Flux<ITenant> findByRegionId(String regionId);
+
+    Flux<ITenant> findForCloud(String cloudName);
+}
@@ -20,8 +20,10 @@ package io.maestro3.agent.dao;
 import io.maestro3.agent.model.base.IAmqpSupportedRegion;
 import io.maestro3.agent.model.base.IRegion;
 import io.maestro3.agent.model.base.PrivateCloudType;
+import io.maestro3.agent.model.base.RegionView;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 
 public interface IRegionRepository<REGION extends IRegion> {
@@ -32,6 +34,23 @@ public interface IRegionRepository<REGION extends IRegion> {
 
     List<IRegion> findAll();
 
+    /**
+     * Keyset pagination by id.
+     *
+     * @param lastId id of the last region of the previous page, {@code null} for the first page
+     */
+    List<IRegion> findAllAfter(String lastId, int limit);
+
+    /**
+     * Streams all regions through a server cursor, the stream must be closed after use.
+     */
+    Stream<IRegion> streamAll();
+
+    /**
+     * Loads all regions projected to the fields of {@link RegionView}.
+     */
+    List<RegionView> findAllViews();
+
     List<REGION> findAllRegionsForCloud();
 
     IRegion findById (String id);
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao;
+
+import io.maestro3.agent.model.base.SchedulerMember;
+
+import java.util.List;
+
+
+public interface ISchedulerMemberDao {
+
+    /**
+     * Registers the member or extends its registration by {@code ttlMillis}.
+     */
+    void heartbeat(String group, String memberId, long ttlMillis);
+
+    void leave(String memberId);
+
+    /**
+     * Members of the group whose registration has not expired, ordered by id.
+     */
+    List<SchedulerMember> findActiveMembers(String group);
+}
@@ -19,8 +19,11 @@ package io.maestro3.agent.dao;
 
 import io.maestro3.agent.model.base.ITenant;
 import io.maestro3.agent.model.base.PrivateCloudType;
+import io.maestro3.agent.model.base.TenantView;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 
 public interface ITenantRepository<TENANT extends ITenant>{
@@ -31,6 +34,23 @@ public interface ITenantRepository<TENANT extends ITenant>{
 
     List<ITenant> findAll();
 
+    /**
+     * Keyset pagination by id.
+     *
+     * @param lastId id of the last tenant of the previous page, {@code null} for the first page
+     */
+    List<ITenant> findAllAfter(String lastId, int limit);
+
+    /**
+     * Streams all tenants through a server cursor, the stream must be closed after use.
+     */
+    Stream<ITenant> streamAll();
+
+    /**
+     * Loads the tenants of all clouds but the excluded ones projected to the fields of {@link TenantView}.
+     */
+    List<TenantView> findViewsExcludingClouds(Collection<PrivateCloudType> excludedClouds);
+
     List<ITenant> findForCloud(String cloudName);
 
     void save(ITenant tenant);
@@ -41,6 +61,11 @@ public interface ITenantRepository<TENANT extends ITenant>{
 
     List<TENANT> findAllInCloud();
 
+    /**
+     * Streams tenants of the repository cloud through a server cursor, the stream must be closed after use.
+     */
+    Stream<TENANT> streamAllInCloud();
+
     TENANT findByTenantAliasAndRegionIdInCloud(String tenantAlias, String regionId);
 
     PrivateCloudType getCloud();
@@ -17,27 +17,102 @@
 
 package io.maestro3.agent.dao;
 
+import io.maestro3.agent.dao.index.IIndexContributor;
+import io.maestro3.agent.dao.index.IndexRegistry;
 import io.maestro3.agent.model.base.InstanceRunRecord;
+import io.maestro3.agent.model.base.InstanceRunStatistic;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
 
+import javax.annotation.PostConstruct;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 
+/**
+ * Stores instance run records with a TTL and keeps start duration rollups for them.
+ * <p>
+ * Every record increments a rollup bucket of {@code rollupBucketMinutes} on three levels: region,
+ * region and tenant, region, tenant and image. A bucket holds count, sum, min, max and a log-scale
+ * histogram (about 5% relative error) of the start durations, so statistics over a sliding window
+ * are read from a few bucket documents instead of scanning the raw records.
+ */
 @Service
-public class InstanceRunRecordDao implements IInstanceRunRecordDao {
+public class InstanceRunRecordDao implements IInstanceRunRecordDao, IIndexContributor {
+    private static final Logger LOG = LoggerFactory.getLogger(InstanceRunRecordDao.class);
 
     protected static final String COLLECTION = "InstanceRunRecord";
+    protected static final String ROLLUP_COLLECTION = "InstanceRunRollup";
+    private static final String ANY = "*";
+    private static final double LOG_BUCKET_BASE = Math.log(1.1);
+
     protected MongoTemplate template;
 
+    @Value("${private.agent.instance.run.record.ttl.minutes:60}")
+    private long recordTtlMinutes;
+    @Value("${private.agent.instance.run.rollup.bucket.minutes:5}")
+    private long rollupBucketMinutes;
+    @Value("${private.agent.instance.run.rollup.ttl.hours:24}")
+    private long rollupTtlHours;
+
     @Autowired
     public InstanceRunRecordDao(MongoTemplate template) {
         this.template = template;
     }
 
+    /**
+     * Records saved before the TTL index have no {@code createdDate} and would never expire,
+     * they get the current date and expire one TTL later.
+     */
+    @PostConstruct
+    public void backfillCreatedDate() {
+        try {
+            long updated = template.updateMulti(Query.query(Criteria.where("createdDate").exists(false)),
+                Update.update("createdDate", new Date()), COLLECTION).getModifiedCount();
+            if (updated > 0) {
+                LOG.info("Set createdDate on {} instance run records saved without it", updated);
+            }
+        } catch (Exception ex) {
+            LOG.error("Failed to set createdDate on instance run records", ex);
+        }
+    }
+
+    @Override
+    public void registerIndexes(IndexRegistry registry) {
+        registry.index(COLLECTION, new Index()
+            .on("createdDate", Sort.Direction.ASC)
+            .expire(recordTtlMinutes, TimeUnit.MINUTES));
+        registry.index(ROLLUP_COLLECTION, new Index()
+            .on("bucketStart", Sort.Direction.ASC)
+            .expire(rollupTtlHours, TimeUnit.HOURS));
+        registry.index(ROLLUP_COLLECTION, new Index()
+            .on("region", Sort.Direction.ASC)
+            .on("tenant", Sort.Direction.ASC)
+            .on("imageId", Sort.Direction.ASC)
+            .on("bucketStart", Sort.Direction.ASC));
+
+        registry.queryShape(ROLLUP_COLLECTION, Query.query(Criteria.where("region").is(IndexRegistry.PROBE_VALUE)
+            .and("tenant").is(IndexRegistry.PROBE_VALUE)
+            .and("imageId").is(IndexRegistry.PROBE_VALUE)
+            .and("bucketStart").gte(new Date())));
+    }
+
     @Override
     public List<InstanceRunRecord> findAll() {
         return template.findAll(InstanceRunRecord.class, COLLECTION);
@@ -46,10 +121,108 @@ public class InstanceRunRecordDao implements IInstanceRunRecordDao {
     @Override
     public void save(InstanceRunRecord lock) {
         template.insert(lock, COLLECTION);
+        try {
+            updateRollups(lock);
+        } catch (Exception ex) {
+            LOG.error("Failed to update start duration rollups", ex);
+        }
     }
 
     @Override
     public void deleteAll() {
         template.remove(Query.query(Criteria.where("_id").exists(true)), COLLECTION);
     }
+
+    @Override
+    public InstanceRunStatistic getStatistic(String region, String tenant, String imageId, long windowMillis) {
+        Assert.hasText(region, "region can't be null or empty.");
+        Assert.isTrue(windowMillis > 0, "windowMillis must be positive.");
+        long from = bucketStart(System.currentTimeMillis() - windowMillis);
+        Query query = Query.query(Criteria.where("region").is(region)
+            .and("tenant").is(keyOf(tenant))
+            .and("imageId").is(keyOf(imageId))
+            .and("bucketStart").gte(new Date(from)));
+        List<Document> buckets = template.find(query, Document.class, ROLLUP_COLLECTION);
+
+        long count = 0;
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        Map<Integer, Long> histogram = new TreeMap<>();
+        for (Document bucket : buckets) {
+            count += bucket.get("count", Number.class).longValue();
+            sum += bucket.get("sum", Number.class).longValue();
+            min = Math.min(min, bucket.get("min", Number.class).longValue());
+            max = Math.max(max, bucket.get("max", Number.class).longValue());
+            Document bucketHistogram = bucket.get("histogram", Document.class);
+            if (bucketHistogram != null) {
+                bucketHistogram.forEach((index, value) ->
+                    histogram.merge(Integer.valueOf(index), ((Number) value).longValue(), Long::sum));
+            }
+        }
+        if (count == 0) {
+            return new InstanceRunStatistic(0, 0, 0, 0, 0, 0, 0);
+        }
+        return new InstanceRunStatistic(count, (double) sum / count, min, max,
+            percentile(histogram, count, 0.5, min, max),
+            percentile(histogram, count, 0.95, min, max),
+            percentile(histogram, count, 0.99, min, max));
+    }
+
+    private void updateRollups(InstanceRunRecord record) {
+        Date bucketStart = new Date(bucketStart(record.getCreatedDate().getTime()));
+        String tenant = Objects.toString(record.getTenant(), "");
+        String imageId = Objects.toString(record.getImageId(), "");
+        BulkOperations operations = template.bulkOps(BulkOperations.BulkMode.UNORDERED, ROLLUP_COLLECTION);
+        addRollup(operations, record, bucketStart, ANY, ANY);
+        addRollup(operations, record, bucketStart, tenant, ANY);
+        addRollup(operations, record, bucketStart, tenant, imageId);
+        operations.execute();
+    }
+
+    private void addRollup(BulkOperations operations, InstanceRunRecord record, Date bucketStart,
+                           String tenant, String imageId) {
+        long duration = record.getStartDuration();
+        // deterministic id keeps concurrent upserts of the same bucket from creating duplicates
+        String id = String.join("|", record.getRegion(), tenant, imageId, String.valueOf(bucketStart.getTime()));
+        Update update = new Update()
+            .setOnInsert("region", record.getRegion())
+            .setOnInsert("tenant", tenant)
+            .setOnInsert("imageId", imageId)
+            .setOnInsert("bucketStart", bucketStart)
+            .inc("count", 1)
+            .inc("sum", duration)
+            .min("min", duration)
+            .max("max", duration)
+            .inc("histogram." + histogramIndex(duration), 1);
+        operations.upsert(Query.query(Criteria.where("_id").is(id)), update);
+    }
+
+    private long bucketStart(long timestamp) {
+        long bucketMillis = TimeUnit.MINUTES.toMillis(rollupBucketMinutes);
+        return timestamp - timestamp % bucketMillis;
+    }
+
+    private static String keyOf(String value) {
+        return value == null ? ANY : value;
+    }
+
+    private static int histogramIndex(long duration) {
+        return duration <= 1 ? 0 : (int) (Math.log(duration) / LOG_BUCKET_BASE);
+    }
+
+    private static long percentile(Map<Integer, Long> histogram, long count, double quantile, long min, long max) {
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (Map.Entry<Integer, Long> entry : histogram.entrySet()) {
+            seen += entry.getValue();
+            if (seen >= rank) {
+                double lower = Math.exp(entry.getKey() * LOG_BUCKET_BASE);
+                double upper = Math.exp((entry.getKey() + 1) * LOG_BUCKET_BASE);
+                long estimate = Math.round(Math.sqrt(lower * upper));
+                return Math.max(min, Math.min(max, estimate));
+            }
+        }
+        return max;
+    }
 }
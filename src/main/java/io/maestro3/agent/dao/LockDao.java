@@ -17,29 +17,88 @@
 
 package io.maestro3.agent.dao;
 
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import io.maestro3.agent.dao.index.IIndexContributor;
+import io.maestro3.agent.dao.index.IndexRegistry;
 import io.maestro3.agent.model.base.Lock;
+import io.maestro3.agent.model.base.LockStatistic;
 import io.maestro3.agent.model.base.PrivateCloudType;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
 
+import javax.annotation.PostConstruct;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 
+/**
+ * Lease locks of the schedulers.
+ * <p>
+ * A lock is a document keyed by cloud and lock name which is taken with an upsert that matches only an
+ * expired lease, so a concurrent holder makes the upsert fail with a duplicate key. Expired documents are
+ * removed by a TTL index. Fencing tokens are counted in a separate collection which never expires, and a lease
+ * is taken only if its token is greater than the one stored in the lock, so tokens of the same lock always grow.
+ * <p>
+ * Locks of the previous shape, keyed by cloud only and without a lease, are removed on startup.
+ */
 @Service
-public class LockDao implements ILockDao {
+public class LockDao implements ILockDao, IIndexContributor {
     private static final Logger LOG = LoggerFactory.getLogger(LockDao.class);
 
     protected static final String COLLECTION = "ScheduleLocks";
+    protected static final String FENCING_COLLECTION = "ScheduleLockFencingTokens";
+    private static final String OWNER = ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID();
+    private static final double NANOS_IN_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
     protected MongoTemplate template;
 
+    private final Map<String, LockMetrics> metrics = new ConcurrentHashMap<>();
+
     @Autowired
     public LockDao(MongoTemplate template) {
         this.template = template;
     }
 
+    @PostConstruct
+    public void removeLegacyLocks() {
+        try {
+            Query legacy = Query.query(Criteria.where("_id").regex("^[^:]+$").and("expiresAt").exists(false));
+            long removed = template.remove(legacy, COLLECTION).getDeletedCount();
+            if (removed > 0) {
+                LOG.info("Removed {} schedule locks keyed by cloud only", removed);
+            }
+        } catch (Exception ex) {
+            LOG.error("Failed to remove schedule locks keyed by cloud only", ex);
+        }
+    }
+
+    @Override
+    public void registerIndexes(IndexRegistry registry) {
+        registry.index(COLLECTION, new Index()
+            .on("expiresAt", Sort.Direction.ASC)
+            .expire(0, TimeUnit.SECONDS));
+    }
+
     @Override
     public List<Lock> findAll() {
         return template.findAll(Lock.class, COLLECTION);
@@ -60,4 +119,106 @@ public class LockDao implements ILockDao {
     public void delete(PrivateCloudType cloudType, String lockName) {
         template.remove(new Lock(cloudType.name(), lockName), COLLECTION);
     }
+
+    @Override
+    public Lock acquire(PrivateCloudType cloudType, String lockName, long leaseMillis) {
+        Assert.notNull(cloudType, "cloudType can't be null.");
+        Assert.hasText(lockName, "lockName can't be null or empty.");
+        Assert.isTrue(leaseMillis > 0, "leaseMillis must be positive.");
+        String id = Lock.idOf(cloudType.name(), lockName);
+        LockMetrics lockMetrics = metricsOf(id);
+        lockMetrics.attempts.increment();
+        long start = System.nanoTime();
+        try {
+            long token = nextFencingToken(id);
+            Date now = new Date();
+            Query query = Query.query(Criteria.where("_id").is(id)
+                .and("fencingToken").lt(token)
+                .and("expiresAt").lt(now));
+            Update update = new Update()
+                .set("cloud", cloudType.name())
+                .set("lockName", lockName)
+                .set("owner", OWNER)
+                .set("lockDate", now.getTime())
+                .set("expiresAt", new Date(now.getTime() + leaseMillis))
+                .set("fencingToken", token);
+            Lock lock = template.findAndModify(query, update,
+                FindAndModifyOptions.options().upsert(true).returnNew(true), Lock.class, COLLECTION);
+            lockMetrics.acquired.increment();
+            return lock;
+        } catch (DuplicateKeyException ex) {
+            lockMetrics.contended.increment();
+            return null;
+        } catch (Exception ex) {
+            LOG.warn("Failed to acquire lock {}", id, ex);
+            return null;
+        } finally {
+            lockMetrics.acquisitionTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean renew(Lock lock, long leaseMillis) {
+        Assert.notNull(lock, "lock can't be null.");
+        LockMetrics lockMetrics = metricsOf(lock.getId());
+        Update update = new Update().set("expiresAt", new Date(System.currentTimeMillis() + leaseMillis));
+        boolean renewed = template.updateFirst(ownedBy(lock), update, COLLECTION).getModifiedCount() > 0;
+        if (renewed) {
+            lockMetrics.renewals.increment();
+        } else {
+            lockMetrics.lostLeases.increment();
+        }
+        return renewed;
+    }
+
+    @Override
+    public void release(Lock lock) {
+        Assert.notNull(lock, "lock can't be null.");
+        template.remove(ownedBy(lock), COLLECTION);
+    }
+
+    @Override
+    public List<LockStatistic> getStatistics() {
+        List<LockStatistic> result = new ArrayList<>();
+        metrics.forEach((id, lockMetrics) -> {
+            Snapshot snapshot = lockMetrics.acquisitionTimer.getSnapshot();
+            LockStatistic statistic = new LockStatistic(id);
+            statistic.setAttempts(lockMetrics.attempts.sum());
+            statistic.setAcquired(lockMetrics.acquired.sum());
+            statistic.setContended(lockMetrics.contended.sum());
+            statistic.setRenewals(lockMetrics.renewals.sum());
+            statistic.setLostLeases(lockMetrics.lostLeases.sum());
+            statistic.setMeanAcquisitionMillis(snapshot.getMean() / NANOS_IN_MILLI);
+            statistic.setP99AcquisitionMillis(snapshot.get99thPercentile() / NANOS_IN_MILLI);
+            statistic.setMaxAcquisitionMillis(snapshot.getMax() / NANOS_IN_MILLI);
+            result.add(statistic);
+        });
+        return result;
+    }
+
+    private long nextFencingToken(String id) {
+        Document counter = template.findAndModify(Query.query(Criteria.where("_id").is(id)),
+            new Update().inc("token", 1L),
+            FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, FENCING_COLLECTION);
+        return counter.get("token", Number.class).longValue();
+    }
+
+    private Query ownedBy(Lock lock) {
+        return Query.query(Criteria.where("_id").is(lock.getId())
+            .and("owner").is(lock.getOwner())
+            .and("fencingToken").is(lock.getFencingToken()));
+    }
+
+    private LockMetrics metricsOf(String id) {
+        return metrics.computeIfAbsent(id, k -> new LockMetrics());
+    }
+
+    private static class LockMetrics {
+        private final Timer acquisitionTimer = new Timer();
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder acquired = new LongAdder();
+        private final LongAdder contended = new LongAdder();
+        private final LongAdder renewals = new LongAdder();
+        private final LongAdder lostLeases = new LongAdder();
+    }
 }
@@ -17,33 +17,253 @@
 
 package io.maestro3.agent.dao;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
 import io.maestro3.agent.model.base.NativeAuditEvent;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+
+/**
+ * Stores native audit events asynchronously.
+ * <p>
+ * {@link #save(NativeAuditEvent)} puts the event into a bounded queue and blocks the caller for up to
+ * {@code offerTimeoutMillis} when the queue is full, which slows down the notification consumers.
+ * A single writer drains the queue with batched {@code insertMany}. When the insert fails or the queue
+ * stays full, the events are appended to a local {@link DocumentJournal}; while the journal is not empty
+ * new batches are journaled as well and the journal is replayed in order once the database accepts writes.
+ */
 @Service
 public class NativeEventDao implements INativeEventDao {
     private static final Logger LOG = LoggerFactory.getLogger(NativeEventDao.class);
 
     protected static final String COLLECTION = "NativeEvents";
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec(MongoClientSettings.getDefaultCodecRegistry());
+    private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
     protected MongoTemplate template;
 
+    @Value("${private.agent.native.events.queue.capacity:10000}")
+    private int queueCapacity;
+    @Value("${private.agent.native.events.batch.size:500}")
+    private int batchSize;
+    @Value("${private.agent.native.events.linger.millis:200}")
+    private long lingerMillis;
+    @Value("${private.agent.native.events.offer.timeout.millis:1000}")
+    private long offerTimeoutMillis;
+    @Value("${private.agent.native.events.retry.interval.millis:5000}")
+    private long retryIntervalMillis;
+    @Value("${private.agent.native.events.journal.dir:${user.home}/.private-agent/native-events-journal}")
+    private String journalDirectory;
+    @Value("${private.agent.native.events.journal.segment.size.mb:64}")
+    private int journalSegmentSizeMb;
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong journaledCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private BlockingQueue<RawBsonDocument> queue;
+    private DocumentJournal journal;
+    private Thread writer;
+    private volatile boolean running;
+    private volatile boolean journalPending;
+    private long nextReplayAttempt;
+
     @Autowired
     public NativeEventDao(MongoTemplate template) {
         this.template = template;
     }
 
+    @PostConstruct
+    public void startWriter() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Path journalPath = Paths.get(journalDirectory).toAbsolutePath();
+        LOG.info("Native events journal directory: {}", journalPath);
+        journal = new DocumentJournal(journalPath, journalSegmentSizeMb * 1024 * 1024);
+        journalPending = !journal.isEmpty();
+        running = true;
+        writer = new Thread(this::drainQueue, "native-events-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stopWriter() throws InterruptedException {
+        running = false;
+        if (writer == null) {
+            return;
+        }
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+        List<RawBsonDocument> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            spill(rest);
+        }
+        if (writer.isAlive()) {
+            // the writer may still append to or replay the journal
+            LOG.warn("Native events writer did not stop in time, the journal is left open");
+            return;
+        }
+        journal.close();
+    }
 
     @Override
     public void save(NativeAuditEvent event) {
+        RawBsonDocument document;
         try {
-            template.insert(event, COLLECTION);
+            document = toDocument(event);
         } catch (Exception ex) {
             LOG.error("Failed to save event", ex);
+            return;
+        }
+        if (!running) {
+            spill(Collections.singletonList(document));
+            return;
+        }
+        try {
+            if (queue.offer(document, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            LOG.warn("Native events queue is full for {} ms, journaling the event", offerTimeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        spill(Collections.singletonList(document));
+    }
+
+    public int getQueueSize() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getJournaledCount() {
+        return journaledCount.get();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void drainQueue() {
+        List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                RawBsonDocument first = queue.poll(lingerMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+            } catch (InterruptedException ex) {
+                if (running) {
+                    continue;
+                }
+                queue.drainTo(batch, batchSize);
+            }
+            replayJournalIfDue();
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    private void write(List<RawBsonDocument> batch) {
+        if (journalPending) {
+            spill(batch);
+            return;
+        }
+        try {
+            insert(batch);
+            writtenCount.addAndGet(batch.size());
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to insert {} native events, journaling them: {}", batch.size(), ex.getMessage());
+            nextReplayAttempt = System.currentTimeMillis() + retryIntervalMillis;
+            spill(batch);
+        }
+    }
+
+    private void replayJournalIfDue() {
+        if (!journalPending || System.currentTimeMillis() < nextReplayAttempt) {
+            return;
+        }
+        try {
+            int replayed = journal.replay(batchSize, this::insert);
+            replayedCount.addAndGet(replayed);
+            LOG.info("Replayed {} journaled native events", replayed);
+            journalPending = !journal.isEmpty();
+        } catch (Exception ex) {
+            LOG.warn("Failed to replay native events journal, next attempt in {} ms: {}",
+                retryIntervalMillis, ex.getMessage());
+            nextReplayAttempt = System.currentTimeMillis() + retryIntervalMillis;
+        }
+    }
+
+    private void insert(List<RawBsonDocument> batch) {
+        try {
+            template.getCollection(COLLECTION)
+                .withDocumentClass(RawBsonDocument.class)
+                .insertMany(batch, UNORDERED);
+        } catch (MongoBulkWriteException ex) {
+            // the same events may be inserted twice when a replayed segment was interrupted
+            for (BulkWriteError error : ex.getWriteErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private void spill(List<RawBsonDocument> documents) {
+        try {
+            journal.append(documents);
+            journaledCount.addAndGet(documents.size());
+            journalPending = true;
+        } catch (IOException | RuntimeException ex) {
+            droppedCount.addAndGet(documents.size());
+            LOG.error("Failed to journal " + documents.size() + " native events", ex);
+        }
+    }
+
+    private RawBsonDocument toDocument(NativeAuditEvent event) {
+        Document document = new Document();
+        template.getConverter().write(event, document);
+        if (document.get("_id") == null) {
+            // assigned upfront so that a replayed event is not stored twice
+            document.put("_id", new ObjectId());
         }
+        return new RawBsonDocument(document, DOCUMENT_CODEC);
     }
 }
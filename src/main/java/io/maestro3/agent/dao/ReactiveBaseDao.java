@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import io.maestro3.agent.dao.tracker.QueryTracker;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking counterpart of {@link BaseDao} built on {@link ReactiveMongoTemplate}.
+ * <p>
+ * Writes are counted in {@link BaseDao#getStatistics()} and query latencies go to {@link BaseDao#getQueryTracker()},
+ * measured from subscription to completion. The reactive template is looked up lazily, so the dao can be declared
+ * in applications which do not configure one as long as it is not used there.
+ */
+public abstract class ReactiveBaseDao<T> {
+
+    private final String collectionName;
+    private final Class<T> clazz;
+
+    @Autowired
+    protected ObjectProvider<ReactiveMongoTemplate> templateProvider;
+
+    public ReactiveBaseDao(String collectionName, Class<T> clazz) {
+        Assert.hasText(collectionName, "collectionName can't be null or empty.");
+        Assert.notNull(clazz, "clazz can't be null.");
+        this.collectionName = collectionName;
+        this.clazz = clazz;
+    }
+
+    public Mono<T> save(T object) {
+        Assert.notNull(object, "object can't be null.");
+        return countWrite(mongo().save(object, collectionName));
+    }
+
+    public Mono<T> insert(T object) {
+        Assert.notNull(object, "object can't be null.");
+        return countWrite(mongo().insert(object, collectionName));
+    }
+
+    public Flux<T> insertAll(Collection<? extends T> objects) {
+        Assert.notEmpty(objects, "collection can't be null or empty.");
+        return mongo().insert(objects, collectionName)
+            .doOnComplete(() -> BaseDao.recordWrites(collectionName, 1))
+            .doFinally(signal -> afterWrite());
+    }
+
+    public Mono<T> findById(String id) {
+        Assert.hasText(id, "entityID can't be null or empty.");
+        ObjectId objectId = new ObjectId(id);
+        return track(Query.query(Criteria.where("_id").is(objectId)),
+            () -> mongo().findById(objectId, clazz, collectionName));
+    }
+
+    public Flux<T> findAll() {
+        return trackMany(new Query(), () -> mongo().findAll(clazz, collectionName));
+    }
+
+    public Flux<T> findAll(Query query) {
+        return trackMany(query, () -> mongo().find(query, clazz, collectionName));
+    }
+
+    /**
+     * Keyset pagination by {@code _id}, see {@link BaseDao#findAllAfter(String, int)}.
+     */
+    public Flux<T> findAllAfter(String lastId, int limit) {
+        Assert.isTrue(limit > 0, "limit must be positive.");
+        Query query = new Query().limit(limit).with(Sort.by(Sort.Direction.ASC, "_id"));
+        if (lastId != null) {
+            query.addCriteria(Criteria.where("_id").gt(new ObjectId(lastId)));
+        }
+        return findAll(query);
+    }
+
+    public Mono<Long> count() {
+        return count(new Query());
+    }
+
+    public Mono<Void> delete(String id) {
+        Assert.hasText(id, "id can't be null or empty.");
+        return remove(Query.query(Criteria.where("_id").is(new ObjectId(id)))).then();
+    }
+
+    public Mono<UpdateResult> modifyOne(Query query, Update update) {
+        Assert.notNull(update, "update can't be null.");
+        Assert.isTrue(!update.getUpdateObject().keySet().isEmpty(), "update must not be empty (it will delete the document!)");
+        return countWrite(track(query, () -> mongo().updateFirst(query, update, clazz, collectionName)));
+    }
+
+    public Mono<UpdateResult> modifyAll(Query query, Update update) {
+        Assert.notNull(update, "update can't be null.");
+        Assert.isTrue(!update.getUpdateObject().keySet().isEmpty(), "update must not be empty (it will delete the document!)");
+        return countWrite(track(query, () -> mongo().updateMulti(query, update, clazz, collectionName)));
+    }
+
+    protected Mono<Long> count(Query query) {
+        return track(query, () -> mongo().count(query, collectionName));
+    }
+
+    protected Mono<T> findOne(Query query) {
+        return track(query, () -> mongo().findOne(query, clazz, collectionName));
+    }
+
+    protected Mono<DeleteResult> remove(Query query) {
+        return countWrite(track(query, () -> mongo().remove(query, collectionName)));
+    }
+
+    protected Mono<T> findAndModify(Query query, Update update) {
+        Assert.notNull(update, "update can't be null.");
+        Assert.isTrue(!update.getUpdateObject().keySet().isEmpty(), "update must not be empty (it will delete the document!)");
+        return countWrite(track(query, () -> mongo().findAndModify(query, update,
+            FindAndModifyOptions.options().returnNew(true), clazz, collectionName)));
+    }
+
+    protected Mono<UpdateResult> upsert(Query query, Update update) {
+        Assert.notNull(update, "update can't be null.");
+        return countWrite(track(query, () -> mongo().upsert(query, update, clazz, collectionName)));
+    }
+
+    public String getCollection() {
+        return collectionName;
+    }
+
+    public Class<T> getCollectionClass() {
+        return clazz;
+    }
+
+    protected <R> Mono<R> track(Query query, Supplier<Mono<R>> operation) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return operation.get().doFinally(signal -> record(query, System.nanoTime() - start));
+        });
+    }
+
+    protected <R> Flux<R> trackMany(Query query, Supplier<Flux<R>> operation) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return operation.get().doFinally(signal -> record(query, System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * Called when a write of this dao completes or fails, e.g. to drop the caches of the collection.
+     */
+    protected void afterWrite() {
+    }
+
+    private <R> Mono<R> countWrite(Mono<R> write) {
+        return write.doOnSuccess(result -> BaseDao.recordWrites(collectionName, 1))
+            .doFinally(signal -> afterWrite());
+    }
+
+    private void record(Query query, long durationNanos) {
+        QueryTracker tracker = BaseDao.getQueryTracker();
+        tracker.record(mongo(), collectionName, query, durationNanos);
+    }
+
+    protected ReactiveMongoOperations mongo() {
+        ReactiveMongoTemplate template = templateProvider.getIfAvailable();
+        if (template == null) {
+            throw new IllegalStateException("ReactiveMongoTemplate is not configured.");
+        }
+        return template;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao;
+
+import io.maestro3.agent.dao.cache.ChangeStreamInvalidator;
+import io.maestro3.agent.model.base.IAmqpSupportedRegion;
+import io.maestro3.agent.model.base.IRegion;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+@Service
+public class ReactiveRegionDao extends ReactiveBaseDao<IRegion> implements IReactiveRegionRepository {
+    protected static final String COLLECTION = "Regions";
+
+    @Autowired
+    private ObjectProvider<MongoTemplate> blockingTemplateProvider;
+
+    public ReactiveRegionDao() {
+        super(COLLECTION, IRegion.class);
+    }
+
+    /**
+     * Drops the near caches of the {@link BaseRegionDao}s, they do not see the writes of the reactive template.
+     */
+    @Override
+    protected void afterWrite() {
+        blockingTemplateProvider.ifAvailable(template ->
+            ChangeStreamInvalidator.forCollection(template, COLLECTION).invalidateAll());
+    }
+
+    @Override
+    public Mono<IRegion> findByRegionAlias(String regionAlias) {
+        return findOne(Query.query(Criteria.where("regionAlias").is(regionAlias)));
+    }
+
+    @Override
+    public Flux<IRegion> findByCloud(String cloudName) {
+        return findAll(Query.query(Criteria.where("cloud").is(cloudName)));
+    }
+
+    @Override
+    public Flux<IAmqpSupportedRegion> findAllAmqpRegions() {
+        Query query = Query.query(Criteria.where("rabbitNotificationConfig").exists(true));
+        return trackMany(query, () -> mongo().find(query, IAmqpSupportedRegion.class, COLLECTION));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao;
+
+import io.maestro3.agent.dao.cache.ChangeStreamInvalidator;
+import io.maestro3.agent.model.base.ITenant;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+@Service
+public class ReactiveTenantDao extends ReactiveBaseDao<ITenant> implements IReactiveTenantRepository {
+    protected static final String COLLECTION = "Tenants";
+
+    @Autowired
+    private ObjectProvider<MongoTemplate> blockingTemplateProvider;
+
+    public ReactiveTenantDao() {
+        super(COLLECTION, ITenant.class);
+    }
+
+    /**
+     * Drops the near caches of the {@link BaseTenantDao}s, they do not see the writes of the reactive template.
+     */
+    @Override
+    protected void afterWrite() {
+        blockingTemplateProvider.ifAvailable(template ->
+            ChangeStreamInvalidator.forCollection(template, COLLECTION).invalidateAll());
+    }
+
+    @Override
+    public Mono<ITenant> findByTenantAliasAndRegionId(String tenantAlias, String regionId) {
+        Criteria criteria = Criteria.where("tenantAlias").is(tenantAlias)
+            .and("regionId").is(regionId);
+        return findOne(Query.query(criteria));
+    }
+
+    @Override
+    public Flux<ITenant> findByRegionId(String regionId) {
+        return findAll(Query.query(Criteria.where("regionId").is(regionId)));
+    }
+
+    @Override
+    public Flux<ITenant> findForCloud(String cloudName) {
+        return findAll(Query.query(Criteria.where("cloud").is(cloudName)));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao;
+
+import io.maestro3.agent.dao.index.IIndexContributor;
+import io.maestro3.agent.dao.index.IndexRegistry;
+import io.maestro3.agent.model.base.SchedulerMember;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+@Service
+public class SchedulerMemberDao implements ISchedulerMemberDao, IIndexContributor {
+
+    protected static final String COLLECTION = "SchedulerMembers";
+    protected MongoTemplate template;
+
+    @Autowired
+    public SchedulerMemberDao(MongoTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public void registerIndexes(IndexRegistry registry) {
+        registry.index(COLLECTION, new Index()
+            .on("expiresAt", Sort.Direction.ASC)
+            .expire(0, TimeUnit.SECONDS));
+        registry.index(COLLECTION, new Index()
+            .on("group", Sort.Direction.ASC)
+            .on("expiresAt", Sort.Direction.ASC));
+
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("group").is(IndexRegistry.PROBE_VALUE)
+            .and("expiresAt").gt(new Date())));
+    }
+
+    @Override
+    public void heartbeat(String group, String memberId, long ttlMillis) {
+        Date now = new Date();
+        Update update = new Update()
+            .set("group", group)
+            .set("expiresAt", new Date(now.getTime() + ttlMillis))
+            .setOnInsert("joinedAt", now);
+        template.upsert(Query.query(Criteria.where("_id").is(memberId)), update, COLLECTION);
+    }
+
+    @Override
+    public void leave(String memberId) {
+        template.remove(Query.query(Criteria.where("_id").is(memberId)), COLLECTION);
+    }
+
+    @Override
+    public List<SchedulerMember> findActiveMembers(String group) {
+        Query query = Query.query(Criteria.where("group").is(group)
+            .and("expiresAt").gt(new Date()))
+            .with(Sort.by(Sort.Direction.ASC, "_id"));
+        return template.find(query, SchedulerMember.class, COLLECTION);
+    }
+}
@@ -17,10 +17,14 @@
 
 package io.maestro3.agent.dao;
 
+import io.maestro3.agent.dao.index.IIndexContributor;
+import io.maestro3.agent.dao.index.IndexRegistry;
 import io.maestro3.agent.model.base.PrivateCloudType;
 import io.maestro3.agent.model.base.SshKeyPair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
@@ -29,7 +33,7 @@ import java.util.List;
 
 
 @Service
-public class SshKeyPairDao implements ISshKeyPairDao {
+public class SshKeyPairDao implements ISshKeyPairDao, IIndexContributor {
     protected static final String COLLECTION = "SshKeyPair";
     protected MongoTemplate template;
 
@@ -38,6 +42,20 @@ public class SshKeyPairDao implements ISshKeyPairDao {
         this.template = template;
     }
 
+    @Override
+    public void registerIndexes(IndexRegistry registry) {
+        registry.index(COLLECTION, new Index()
+            .on("cloud", Sort.Direction.ASC)
+            .on("tenant", Sort.Direction.ASC)
+            .on("region", Sort.Direction.ASC)
+            .on("name", Sort.Direction.ASC));
+
+        registry.queryShape(COLLECTION, Query.query(Criteria.where("cloud").is(IndexRegistry.PROBE_VALUE)
+            .and("tenant").is(IndexRegistry.PROBE_VALUE)
+            .and("name").is(IndexRegistry.PROBE_VALUE)
+            .and("region").is(IndexRegistry.PROBE_VALUE)));
+    }
+
     @Override
     public List<SshKeyPair> findAll() {
         return template.findAll(SshKeyPair.class, COLLECTION);
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao.cache;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops the registered {@link NearCache}s on every change of the watched collection. One invalidator,
+ * and so one change stream, is shared by all caches of a collection, see {@link #forCollection}.
+ * When change streams are not supported (e.g. standalone server) the caches keep working on their TTL
+ * and the stream is retried periodically.
+ */
+public class ChangeStreamInvalidator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeStreamInvalidator.class);
+
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MAX_AWAIT_MILLIS = 1000;
+
+    private static final Map<String, ChangeStreamInvalidator> INVALIDATORS = new ConcurrentHashMap<>();
+
+    private final MongoTemplate template;
+    private final String collection;
+    private final Set<NearCache<?>> caches = new CopyOnWriteArraySet<>();
+
+    private volatile boolean running;
+    private volatile boolean streamActive;
+    private volatile Thread watcher;
+
+    private ChangeStreamInvalidator(MongoTemplate template, String collection) {
+        this.template = template;
+        this.collection = collection;
+    }
+
+    public static ChangeStreamInvalidator forCollection(MongoTemplate template, String collection) {
+        return INVALIDATORS.computeIfAbsent(template.getDb().getName() + "." + collection,
+            key -> new ChangeStreamInvalidator(template, collection));
+    }
+
+    public synchronized void register(NearCache<?> cache) {
+        cache.setChangeStreamActive(streamActive);
+        caches.add(cache);
+    }
+
+    public synchronized void start() {
+        if (running || caches.isEmpty()) {
+            return;
+        }
+        running = true;
+        watcher = new ThreadFactoryBuilder()
+            .setNameFormat("change-stream-" + collection)
+            .setDaemon(true)
+            .build()
+            .newThread(this::watch);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching the collection when the last cache is unregistered.
+     */
+    public synchronized void unregister(NearCache<?> cache) {
+        caches.remove(cache);
+        cache.setChangeStreamActive(false);
+        if (!caches.isEmpty()) {
+            return;
+        }
+        running = false;
+        streamActive = false;
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Drops the caches of the collection right away, for the writes of this process.
+     */
+    public void invalidateAll() {
+        caches.forEach(NearCache::invalidateAll);
+    }
+
+    private boolean isWatching() {
+        return running && watcher == Thread.currentThread();
+    }
+
+    private void setStreamActive(boolean active) {
+        streamActive = active;
+        caches.forEach(cache -> cache.setChangeStreamActive(active));
+    }
+
+    private void watch() {
+        while (isWatching()) {
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = template.getCollection(collection)
+                .watch()
+                .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+                .cursor()) {
+                setStreamActive(true);
+                // changes made while the stream was down are unknown
+                invalidateAll();
+                LOG.info("Watching {} changes for {} caches", collection, caches.size());
+                while (isWatching()) {
+                    if (cursor.tryNext() != null) {
+                        invalidateAll();
+                    }
+                }
+            } catch (Exception ex) {
+                LOG.warn("Change stream on {} is unavailable, caches fall back to TTL: {}", collection, ex.getMessage());
+            } finally {
+                if (watcher == Thread.currentThread()) {
+                    setStreamActive(false);
+                }
+            }
+            if (!sleepBeforeRetry()) {
+                return;
+            }
+        }
+    }
+
+    private boolean sleepBeforeRetry() {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.MongoClientSettings;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Read-through in-memory cache for rarely changed documents.
+ * <p>
+ * While a change stream is watching the source collection entries live up to {@code maxTtlMillis}
+ * and are dropped on every change; without it they are considered stale after {@code ttlMillis}.
+ * Documents are kept as immutable BSON snapshots and mapped on every hit, so each caller gets
+ * its own instance.
+ */
+public class NearCache<V> {
+
+    private static final Map<String, NearCache<?>> CACHES = new ConcurrentHashMap<>();
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec(MongoClientSettings.getDefaultCodecRegistry());
+
+    private final String name;
+    private final MongoConverter converter;
+    private final Class<V> type;
+    private final Cache<String, CachedValue> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private volatile long ttlMillis;
+    private volatile boolean changeStreamActive;
+
+    public NearCache(String name, int maxSize, long maxTtlMillis, long ttlMillis,
+                     MongoConverter converter, Class<V> type) {
+        this.name = name;
+        this.converter = converter;
+        this.type = type;
+        this.ttlMillis = ttlMillis;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(maxTtlMillis, TimeUnit.MILLISECONDS)
+            .build();
+        CACHES.put(name, this);
+    }
+
+    public static Map<String, NearCacheStatistic> getStatistics() {
+        Map<String, NearCacheStatistic> statistics = new HashMap<>();
+        CACHES.forEach((name, cache) -> statistics.put(name, cache.getStatistic()));
+        return statistics;
+    }
+
+    /**
+     * @param loader loads the raw document, {@code null} results are not cached
+     */
+    public V get(String key, Supplier<Document> loader) {
+        CachedValue cachedValue = cache.getIfPresent(key);
+        if (cachedValue != null && (changeStreamActive || !cachedValue.isOlderThan(ttlMillis))) {
+            hits.increment();
+            return read(cachedValue.snapshot.decode(DOCUMENT_CODEC));
+        }
+        misses.increment();
+        long loadGeneration = generation.get();
+        Document document = loader.get();
+        if (document == null) {
+            return null;
+        }
+        if (loadGeneration == generation.get()) {
+            cache.put(key, new CachedValue(new RawBsonDocument(document, DOCUMENT_CODEC)));
+        }
+        return read(document);
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        invalidations.increment();
+    }
+
+    private V read(Document document) {
+        return converter.read(type, document);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void setChangeStreamActive(boolean changeStreamActive) {
+        this.changeStreamActive = changeStreamActive;
+    }
+
+    public NearCacheStatistic getStatistic() {
+        NearCacheStatistic statistic = new NearCacheStatistic(name);
+        statistic.setHits(hits.sum());
+        statistic.setMisses(misses.sum());
+        statistic.setInvalidations(invalidations.sum());
+        statistic.setSize(cache.size());
+        statistic.setChangeStreamActive(changeStreamActive);
+        return statistic;
+    }
+
+    private static final class CachedValue {
+        private final RawBsonDocument snapshot;
+        private final long loadTime = System.currentTimeMillis();
+
+        private CachedValue(RawBsonDocument snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private boolean isOlderThan(long millis) {
+            return System.currentTimeMillis() - loadTime > millis;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao.index;
+
+import com.mongodb.MongoException;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collects indexes and query shapes declared by {@link IIndexContributor} DAOs. On startup it creates
+ * missing indexes and explains every registered query shape, reporting the ones planned as a collection scan.
+ * A changed TTL of an existing index is applied with {@code collMod}.
+ */
+@Component
+public class IndexRegistry implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexRegistry.class);
+
+    /**
+     * Value to use in registered query shapes, plans do not depend on the compared values.
+     */
+    public static final String PROBE_VALUE = "index_probe";
+
+    private static final String COLLSCAN = "COLLSCAN";
+    private static final String EXPIRE_AFTER_SECONDS = "expireAfterSeconds";
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+
+    private final MongoTemplate template;
+    private final ObjectProvider<IIndexContributor> contributors;
+    private final boolean verificationEnabled;
+
+    private final Map<String, Pair<String, Index>> indexes = new LinkedHashMap<>();
+    private final Map<String, Pair<String, Query>> queryShapes = new LinkedHashMap<>();
+
+    @Autowired
+    public IndexRegistry(MongoTemplate template,
+                         ObjectProvider<IIndexContributor> contributors,
+                         @Value("${private.agent.index.verification.enabled:true}") boolean verificationEnabled) {
+        this.template = template;
+        this.contributors = contributors;
+        this.verificationEnabled = verificationEnabled;
+    }
+
+    public synchronized void index(String collection, Index index) {
+        Assert.hasText(collection, "collection can't be null or empty.");
+        Assert.notNull(index, "index can't be null.");
+        Assert.isTrue(index.getIndexKeys().keySet().size() > 0, "index.indexKeys are empty.");
+        indexes.putIfAbsent(collection + index.getIndexKeys().toJson(), Pair.of(collection, index));
+    }
+
+    public synchronized void queryShape(String collection, Query query) {
+        Assert.hasText(collection, "collection can't be null or empty.");
+        Assert.notNull(query, "query can't be null.");
+        queryShapes.putIfAbsent(collection + query.getQueryObject() + query.getSortObject(), Pair.of(collection, query));
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (Objects.nonNull(event.getApplicationContext().getParent())) {
+            return;
+        }
+        contributors.orderedStream().forEach(contributor -> contributor.registerIndexes(this));
+        ensureIndexes();
+        if (verificationEnabled) {
+            verifyQueryShapes();
+        }
+    }
+
+    public synchronized void ensureIndexes() {
+        for (Pair<String, Index> index : indexes.values()) {
+            try {
+                template.indexOps(index.getFirst()).ensureIndex(index.getSecond());
+            } catch (Exception ex) {
+                if (isIndexOptionsConflict(ex) && updateExpiration(index.getFirst(), index.getSecond())) {
+                    continue;
+                }
+                LOG.error("Failed to ensure index {} on {}", index.getSecond().getIndexKeys().toJson(), index.getFirst(), ex);
+            }
+        }
+    }
+
+    private boolean updateExpiration(String collection, Index index) {
+        Object expireAfterSeconds = index.getIndexOptions().get(EXPIRE_AFTER_SECONDS);
+        if (expireAfterSeconds == null) {
+            return false;
+        }
+        Document keyPattern = index.getIndexKeys();
+        try {
+            template.executeCommand(new Document("collMod", collection)
+                .append("index", new Document("keyPattern", keyPattern).append(EXPIRE_AFTER_SECONDS, expireAfterSeconds)));
+        } catch (Exception ex) {
+            LOG.error("Failed to change expiration of index {} on {}", keyPattern.toJson(), collection, ex);
+            return false;
+        }
+        LOG.info("Changed expiration of index {} on {} to {} seconds", keyPattern.toJson(), collection, expireAfterSeconds);
+        return true;
+    }
+
+    private static boolean isIndexOptionsConflict(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException && ((MongoException) cause).getCode() == INDEX_OPTIONS_CONFLICT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return registered query shapes which are executed as a collection scan
+     */
+    public synchronized List<String> verifyQueryShapes() {
+        List<String> collectionScans = new ArrayList<>();
+        for (Pair<String, Query> shape : queryShapes.values()) {
+            String collection = shape.getFirst();
+            Query query = shape.getSecond();
+            try {
+                Document find = new Document("find", collection)
+                    .append("filter", template.getConverter().convertToMongoType(query.getQueryObject()));
+                if (!query.getSortObject().isEmpty()) {
+                    find.append("sort", query.getSortObject());
+                }
+                Document explain = template.executeCommand(new Document("explain", find).append("verbosity", "queryPlanner"));
+                Object winningPlan = ((Document) explain.get("queryPlanner")).get("winningPlan");
+                if (containsStage(winningPlan, COLLSCAN)) {
+                    collectionScans.add(collection + " " + query.getQueryObject());
+                    LOG.warn("!!! COLLSCAN: query {} on {} is not covered by any index !!!", query.getQueryObject(), collection);
+                }
+            } catch (Exception ex) {
+                LOG.error("Failed to explain query {} on {}", query.getQueryObject(), collection, ex);
+            }
+        }
+        return collectionScans;
+    }
+
+    private boolean containsStage(Object plan, String stage) {
+        if (plan instanceof Document) {
+            Document document = (Document) plan;
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+            for (Object value : document.values()) {
+                if (containsStage(value, stage)) {
+                    return true;
+                }
+            }
+        } else if (plan instanceof Collection) {
+            for (Object value : (Collection<?>) plan) {
+                if (containsStage(value, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao.tracker;
+
+public class QueryStatistic {
+    private final String collection;
+    private final String shape;
+    private long count;
+    private double meanMillis;
+    private double medianMillis;
+    private double p95Millis;
+    private double p99Millis;
+    private double maxMillis;
+
+    public QueryStatistic(String collection, String shape) {
+        this.collection = collection;
+        this.shape = shape;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public void setMeanMillis(double meanMillis) {
+        this.meanMillis = meanMillis;
+    }
+
+    public double getMedianMillis() {
+        return medianMillis;
+    }
+
+    public void setMedianMillis(double medianMillis) {
+        this.medianMillis = medianMillis;
+    }
+
+    public double getP95Millis() {
+        return p95Millis;
+    }
+
+    public void setP95Millis(double p95Millis) {
+        this.p95Millis = p95Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public void setP99Millis(double p99Millis) {
+        this.p99Millis = p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    public void setMaxMillis(double maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStatistic{" +
+            "collection='" + collection + '\'' +
+            ", shape='" + shape + '\'' +
+            ", count=" + count +
+            ", meanMillis=" + meanMillis +
+            ", p95Millis=" + p95Millis +
+            ", p99Millis=" + p99Millis +
+            ", maxMillis=" + maxMillis +
+            '}';
+    }
+}
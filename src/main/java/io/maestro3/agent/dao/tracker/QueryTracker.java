@@ -0,0 +1,247 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao.tracker;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Records latency of DAO queries grouped by collection and query shape.
+ * <p>
+ * The shape is the query filter with every value replaced by {@code ?} plus the sort keys, so
+ * {@code {cloud: 'OPEN_STACK', regionId: 'x'}} and {@code {cloud: 'AWS', regionId: 'y'}} share one histogram.
+ * Queries slower than the threshold are kept in a bounded log, and one of them per shape and explain interval
+ * gets the query planner output attached in background.
+ */
+public class QueryTracker {
+
+    private static final Logger LOG = LogManager.getLogger(QueryTracker.class);
+
+    private static final String VALUE_PLACEHOLDER = "?";
+    private static final String OTHER_SHAPE = "other";
+    private static final int MAX_TRACKED_SHAPES = 1000;
+    private static final double NANOS_IN_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final Duration EXPLAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final Map<String, TrackedShape> shapes = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastExplainTime = new ConcurrentHashMap<>();
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private final ExecutorService explainExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(16),
+        new ThreadFactoryBuilder().setNameFormat("query-explain-%d").setDaemon(true).build(),
+        new ThreadPoolExecutor.DiscardPolicy());
+
+    private volatile long slowQueryThresholdMillis = 500;
+    private volatile int slowQueryLogSize = 100;
+    private volatile long explainIntervalMillis = TimeUnit.MINUTES.toMillis(10);
+
+    public void record(MongoOperations mongo, String collection, Query query, long durationNanos) {
+        record(mongo.getConverter(), mongo::executeCommand, collection, query, durationNanos);
+    }
+
+    /**
+     * Records a query executed through the reactive template, the explain of a slow query
+     * is awaited on the explain thread.
+     */
+    public void record(ReactiveMongoOperations mongo, String collection, Query query, long durationNanos) {
+        record(mongo.getConverter(), command -> mongo.executeCommand(command).block(EXPLAIN_TIMEOUT),
+            collection, query, durationNanos);
+    }
+
+    private void record(MongoConverter converter, Function<Document, Document> commandExecutor,
+                        String collection, Query query, long durationNanos) {
+        String shape = toShape(query);
+        String key = collection + ':' + shape;
+        TrackedShape trackedShape = shapes.get(key);
+        if (trackedShape == null) {
+            if (shapes.size() >= MAX_TRACKED_SHAPES) {
+                shape = OTHER_SHAPE;
+                key = collection + ':' + shape;
+            }
+            String trackedShapeName = shape;
+            trackedShape = shapes.computeIfAbsent(key, k -> new TrackedShape(collection, trackedShapeName));
+        }
+        trackedShape.timer.update(durationNanos, TimeUnit.NANOSECONDS);
+
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        if (durationMillis >= slowQueryThresholdMillis) {
+            onSlowQuery(converter, commandExecutor, collection, shape, key, query, durationMillis);
+        }
+    }
+
+    public List<QueryStatistic> getStatistics() {
+        List<QueryStatistic> result = new ArrayList<>();
+        for (TrackedShape trackedShape : shapes.values()) {
+            Snapshot snapshot = trackedShape.timer.getSnapshot();
+            QueryStatistic statistic = new QueryStatistic(trackedShape.collection, trackedShape.shape);
+            statistic.setCount(trackedShape.timer.getCount());
+            statistic.setMeanMillis(snapshot.getMean() / NANOS_IN_MILLI);
+            statistic.setMedianMillis(snapshot.getMedian() / NANOS_IN_MILLI);
+            statistic.setP95Millis(snapshot.get95thPercentile() / NANOS_IN_MILLI);
+            statistic.setP99Millis(snapshot.get99thPercentile() / NANOS_IN_MILLI);
+            statistic.setMaxMillis(snapshot.getMax() / NANOS_IN_MILLI);
+            result.add(statistic);
+        }
+        return result;
+    }
+
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (slowQueries) {
+            return new ArrayList<>(slowQueries);
+        }
+    }
+
+    public void clear() {
+        shapes.clear();
+        lastExplainTime.clear();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    }
+
+    public void setSlowQueryLogSize(int slowQueryLogSize) {
+        this.slowQueryLogSize = slowQueryLogSize;
+    }
+
+    public void setExplainIntervalMillis(long explainIntervalMillis) {
+        this.explainIntervalMillis = explainIntervalMillis;
+    }
+
+    public static String toShape(Query query) {
+        StringBuilder shape = new StringBuilder();
+        appendShape(shape, query.getQueryObject());
+        Document sort = query.getSortObject();
+        if (!sort.isEmpty()) {
+            shape.append(" sort ").append(sort.toJson());
+        }
+        return shape.toString();
+    }
+
+    private void onSlowQuery(MongoConverter converter, Function<Document, Document> commandExecutor,
+                             String collection, String shape, String key, Query query, long durationMillis) {
+        SlowQuery slowQuery = new SlowQuery(collection, shape, query.toString(), durationMillis,
+            System.currentTimeMillis());
+        LOG.warn("Slow query on {} took {} ms: {}", collection, durationMillis, shape);
+        synchronized (slowQueries) {
+            while (slowQueries.size() >= slowQueryLogSize && !slowQueries.isEmpty()) {
+                slowQueries.removeFirst();
+            }
+            slowQueries.addLast(slowQuery);
+        }
+
+        long now = slowQuery.getTimestamp();
+        Long lastExplain = lastExplainTime.get(key);
+        if (lastExplain == null || now - lastExplain >= explainIntervalMillis) {
+            lastExplainTime.put(key, now);
+            explainExecutor.execute(() -> explain(converter, commandExecutor, collection, query, slowQuery));
+        }
+    }
+
+    private void explain(MongoConverter converter, Function<Document, Document> commandExecutor,
+                         String collection, Query query, SlowQuery slowQuery) {
+        try {
+            Document find = new Document("find", collection)
+                .append("filter", converter.convertToMongoType(query.getQueryObject()));
+            if (!query.getSortObject().isEmpty()) {
+                find.append("sort", query.getSortObject());
+            }
+            Document command = new Document("explain", find).append("verbosity", "queryPlanner");
+            slowQuery.setExplain(commandExecutor.apply(command).toJson());
+        } catch (Exception ex) {
+            LOG.debug(String.format("Failed to explain slow query on %s", collection), ex);
+        }
+    }
+
+    private static void appendShape(StringBuilder shape, Object value) {
+        if (value instanceof Map) {
+            shape.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    shape.append(", ");
+                }
+                first = false;
+                shape.append(entry.getKey()).append(": ");
+                appendShape(shape, entry.getValue());
+            }
+            shape.append('}');
+        } else if (value instanceof Collection && containsOnlyMaps((Collection<?>) value)) {
+            shape.append('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) {
+                    shape.append(", ");
+                }
+                first = false;
+                appendShape(shape, item);
+            }
+            shape.append(']');
+        } else {
+            shape.append(VALUE_PLACEHOLDER);
+        }
+    }
+
+    private static boolean containsOnlyMaps(Collection<?> values) {
+        if (values.isEmpty()) {
+            return false;
+        }
+        for (Object value : values) {
+            if (!(value instanceof Map)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class TrackedShape {
+        private final String collection;
+        private final String shape;
+        private final Timer timer = new Timer();
+
+        private TrackedShape(String collection, String shape) {
+            this.collection = collection;
+            this.shape = shape;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.dao.tracker;
+
+public class SlowQuery {
+    private final String collection;
+    private final String shape;
+    private final String query;
+    private final long durationMillis;
+    private final long timestamp;
+    private volatile String explain;
+
+    public SlowQuery(String collection, String shape, String query, long durationMillis, long timestamp) {
+        this.collection = collection;
+        this.shape = shape;
+        this.query = query;
+        this.durationMillis = durationMillis;
+        this.timestamp = timestamp;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getExplain() {
+        return explain;
+    }
+
+    public void setExplain(String explain) {
+        this.explain = explain;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowQuery{" +
+            "collection='" + collection + '\'' +
+            ", shape='" + shape + '\'' +
+            ", durationMillis=" + durationMillis +
+            ", query='" + query + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.model.base;
+
+
+public class AuditStatistic {
+    private int queueSize;
+    private int inFlightBatches;
+    private long published;
+    private long retried;
+    private long spilled;
+    private long replayed;
+    private long dropped;
+    private long spillFileBytes;
+    private double meanBatchSize;
+    private double meanPublishMillis;
+    private double p95PublishMillis;
+    private double p99PublishMillis;
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getInFlightBatches() {
+        return inFlightBatches;
+    }
+
+    public void setInFlightBatches(int inFlightBatches) {
+        this.inFlightBatches = inFlightBatches;
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public void setPublished(long published) {
+        this.published = published;
+    }
+
+    public long getRetried() {
+        return retried;
+    }
+
+    public void setRetried(long retried) {
+        this.retried = retried;
+    }
+
+    public long getSpilled() {
+        return spilled;
+    }
+
+    public void setSpilled(long spilled) {
+        this.spilled = spilled;
+    }
+
+    public long getReplayed() {
+        return replayed;
+    }
+
+    public void setReplayed(long replayed) {
+        this.replayed = replayed;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public void setDropped(long dropped) {
+        this.dropped = dropped;
+    }
+
+    public long getSpillFileBytes() {
+        return spillFileBytes;
+    }
+
+    public void setSpillFileBytes(long spillFileBytes) {
+        this.spillFileBytes = spillFileBytes;
+    }
+
+    public double getMeanBatchSize() {
+        return meanBatchSize;
+    }
+
+    public void setMeanBatchSize(double meanBatchSize) {
+        this.meanBatchSize = meanBatchSize;
+    }
+
+    public double getMeanPublishMillis() {
+        return meanPublishMillis;
+    }
+
+    public void setMeanPublishMillis(double meanPublishMillis) {
+        this.meanPublishMillis = meanPublishMillis;
+    }
+
+    public double getP95PublishMillis() {
+        return p95PublishMillis;
+    }
+
+    public void setP95PublishMillis(double p95PublishMillis) {
+        this.p95PublishMillis = p95PublishMillis;
+    }
+
+    public double getP99PublishMillis() {
+        return p99PublishMillis;
+    }
+
+    public void setP99PublishMillis(double p99PublishMillis) {
+        this.p99PublishMillis = p99PublishMillis;
+    }
+}
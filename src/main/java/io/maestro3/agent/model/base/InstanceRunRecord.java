@@ -17,12 +17,14 @@
 
 package io.maestro3.agent.model.base;
 
+import java.util.Date;
 
 public class InstanceRunRecord {
     private String region;
     private String tenant;
     private String imageId;
     private long startDuration;
+    private Date createdDate = new Date();
 
     public InstanceRunRecord(String region, String tenant, String imageId, long startDuration) {
         this.region = region;
@@ -62,4 +64,12 @@ public class InstanceRunRecord {
     public void setStartDuration(long startDuration) {
         this.startDuration = startDuration;
     }
+
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(Date createdDate) {
+        this.createdDate = createdDate;
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.model.base;
+
+
+public class InstanceRunStatistic {
+    private final long count;
+    private final double mean;
+    private final long min;
+    private final long max;
+    private final long p50;
+    private final long p95;
+    private final long p99;
+
+    public InstanceRunStatistic(long count, double mean, long min, long max, long p50, long p95, long p99) {
+        this.count = count;
+        this.mean = mean;
+        this.min = min;
+        this.max = max;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP95() {
+        return p95;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    @Override
+    public String toString() {
+        return "InstanceRunStatistic{" +
+            "count=" + count +
+            ", mean=" + mean +
+            ", min=" + min +
+            ", max=" + max +
+            ", p50=" + p50 +
+            ", p95=" + p95 +
+            ", p99=" + p99 +
+            '}';
+    }
+}
@@ -19,23 +19,42 @@ package io.maestro3.agent.model.base;
 
 import org.springframework.data.annotation.Id;
 
+import java.util.Date;
+
 
 public class Lock {
 
     @Id
+    private String id;
     private String cloud;
     private String lockName;
     private long lockDate;
+    private String owner;
+    private Date expiresAt;
+    private long fencingToken;
 
     public Lock() {
     }
 
     public Lock(String cloud, String lockName) {
+        this.id = idOf(cloud, lockName);
         this.cloud = cloud;
         this.lockName = lockName;
         this.lockDate = System.currentTimeMillis();
     }
 
+    public static String idOf(String cloud, String lockName) {
+        return cloud + ":" + lockName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
     public String getCloud() {
         return cloud;
     }
@@ -59,4 +78,31 @@ public class Lock {
     public void setLockDate(long lockDate) {
         this.lockDate = lockDate;
     }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Date getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Date expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Token of the lease, every successful acquisition of the same lock gets a greater one.
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
 }
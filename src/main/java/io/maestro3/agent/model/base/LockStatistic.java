@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.model.base;
+
+
+public class LockStatistic {
+    private final String lockId;
+    private long attempts;
+    private long acquired;
+    private long contended;
+    private long renewals;
+    private long lostLeases;
+    private double meanAcquisitionMillis;
+    private double p99AcquisitionMillis;
+    private double maxAcquisitionMillis;
+
+    public LockStatistic(String lockId) {
+        this.lockId = lockId;
+    }
+
+    public String getLockId() {
+        return lockId;
+    }
+
+    public long getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(long attempts) {
+        this.attempts = attempts;
+    }
+
+    public long getAcquired() {
+        return acquired;
+    }
+
+    public void setAcquired(long acquired) {
+        this.acquired = acquired;
+    }
+
+    public long getContended() {
+        return contended;
+    }
+
+    public void setContended(long contended) {
+        this.contended = contended;
+    }
+
+    public long getRenewals() {
+        return renewals;
+    }
+
+    public void setRenewals(long renewals) {
+        this.renewals = renewals;
+    }
+
+    public long getLostLeases() {
+        return lostLeases;
+    }
+
+    public void setLostLeases(long lostLeases) {
+        this.lostLeases = lostLeases;
+    }
+
+    public double getMeanAcquisitionMillis() {
+        return meanAcquisitionMillis;
+    }
+
+    public void setMeanAcquisitionMillis(double meanAcquisitionMillis) {
+        this.meanAcquisitionMillis = meanAcquisitionMillis;
+    }
+
+    public double getP99AcquisitionMillis() {
+        return p99AcquisitionMillis;
+    }
+
+    public void setP99AcquisitionMillis(double p99AcquisitionMillis) {
+        this.p99AcquisitionMillis = p99AcquisitionMillis;
+    }
+
+    public double getMaxAcquisitionMillis() {
+        return maxAcquisitionMillis;
+    }
+
+    public void setMaxAcquisitionMillis(double maxAcquisitionMillis) {
+        this.maxAcquisitionMillis = maxAcquisitionMillis;
+    }
+}
@@ -37,6 +37,16 @@ public class RabbitNotificationConfig extends SimpleRabbitConfiguration {
     @Range(min = 1, max = 30) // thread number - better not be too large
     private int maxConcurrentConsumers;
 
+    @Range(max = 30) // 0 - minConcurrentConsumers, used by the consolidated listeners
+    private int consumersPerQueue;
+    @Range(max = 1000) // 0 or 1 - no batching
+    private int batchSize;
+    @Range(max = 10000) // never less than the batch size
+    private int prefetchCount;
+    private boolean adaptivePrefetch;
+    @Range(max = 10000) // prefetch of the adaptive batch, 0 - private.agent.amqp.adaptive.batch.max.prefetch
+    private int maxPrefetchCount;
+
     private Map<String, List<String>> queueMapping = new HashMap<>();
     private String rabbitQueue;
 
@@ -80,6 +90,46 @@ public class RabbitNotificationConfig extends SimpleRabbitConfiguration {
         this.maxConcurrentConsumers = maxConcurrentConsumers;
     }
 
+    public int getConsumersPerQueue() {
+        return consumersPerQueue;
+    }
+
+    public void setConsumersPerQueue(int consumersPerQueue) {
+        this.consumersPerQueue = consumersPerQueue;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+
+    public boolean isAdaptivePrefetch() {
+        return adaptivePrefetch;
+    }
+
+    public void setAdaptivePrefetch(boolean adaptivePrefetch) {
+        this.adaptivePrefetch = adaptivePrefetch;
+    }
+
+    public int getMaxPrefetchCount() {
+        return maxPrefetchCount;
+    }
+
+    public void setMaxPrefetchCount(int maxPrefetchCount) {
+        this.maxPrefetchCount = maxPrefetchCount;
+    }
+
     public Map<String, List<String>> getQueueMapping() {
         return queueMapping;
     }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.model.base;
+
+import org.springframework.data.annotation.Id;
+
+/**
+ * Read-only projection of a region with the fields the heartbeat state needs.
+ */
+public class RegionView {
+
+    @Id
+    private String id;
+    private String regionAlias;
+    private boolean managementAvailable;
+    private PrivateCloudType cloud;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRegionAlias() {
+        return regionAlias;
+    }
+
+    public boolean isManagementAvailable() {
+        return managementAvailable;
+    }
+
+    public PrivateCloudType getCloud() {
+        return cloud;
+    }
+}
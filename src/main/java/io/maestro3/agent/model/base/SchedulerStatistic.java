@@ -0,0 +1,148 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.model.base;
+
+
+public class SchedulerStatistic {
+    private final String scheduleTitle;
+    private long runs;
+    private long failures;
+    private long lockSkips;
+    private long overruns;
+    private long skippedRuns;
+    private long queuedRuns;
+    private long coalescedRuns;
+    private boolean running;
+    private double lastDurationMillis;
+    private double meanDurationMillis;
+    private double p95DurationMillis;
+    private double p99DurationMillis;
+    private double maxDurationMillis;
+
+    public SchedulerStatistic(String scheduleTitle) {
+        this.scheduleTitle = scheduleTitle;
+    }
+
+    public String getScheduleTitle() {
+        return scheduleTitle;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public void setRuns(long runs) {
+        this.runs = runs;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public void setFailures(long failures) {
+        this.failures = failures;
+    }
+
+    public long getLockSkips() {
+        return lockSkips;
+    }
+
+    public void setLockSkips(long lockSkips) {
+        this.lockSkips = lockSkips;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public void setOverruns(long overruns) {
+        this.overruns = overruns;
+    }
+
+    public long getSkippedRuns() {
+        return skippedRuns;
+    }
+
+    public void setSkippedRuns(long skippedRuns) {
+        this.skippedRuns = skippedRuns;
+    }
+
+    public long getQueuedRuns() {
+        return queuedRuns;
+    }
+
+    public void setQueuedRuns(long queuedRuns) {
+        this.queuedRuns = queuedRuns;
+    }
+
+    public long getCoalescedRuns() {
+        return coalescedRuns;
+    }
+
+    public void setCoalescedRuns(long coalescedRuns) {
+        this.coalescedRuns = coalescedRuns;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void setRunning(boolean running) {
+        this.running = running;
+    }
+
+    public double getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    public void setLastDurationMillis(double lastDurationMillis) {
+        this.lastDurationMillis = lastDurationMillis;
+    }
+
+    public double getMeanDurationMillis() {
+        return meanDurationMillis;
+    }
+
+    public void setMeanDurationMillis(double meanDurationMillis) {
+        this.meanDurationMillis = meanDurationMillis;
+    }
+
+    public double getP95DurationMillis() {
+        return p95DurationMillis;
+    }
+
+    public void setP95DurationMillis(double p95DurationMillis) {
+        this.p95DurationMillis = p95DurationMillis;
+    }
+
+    public double getP99DurationMillis() {
+        return p99DurationMillis;
+    }
+
+    public void setP99DurationMillis(double p99DurationMillis) {
+        this.p99DurationMillis = p99DurationMillis;
+    }
+
+    public double getMaxDurationMillis() {
+        return maxDurationMillis;
+    }
+
+    public void setMaxDurationMillis(double maxDurationMillis) {
+        this.maxDurationMillis = maxDurationMillis;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.model.base;
+
+import org.springframework.data.annotation.Id;
+
+/**
+ * Read-only projection of a tenant with the fields the heartbeat state needs.
+ */
+public class TenantView {
+
+    @Id
+    private String id;
+    private String tenantAlias;
+    private String regionId;
+    private PrivateCloudType cloud;
+    private TenantState tenantState = TenantState.UNKNOWN;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTenantAlias() {
+        return tenantAlias;
+    }
+
+    public String getRegionId() {
+        return regionId;
+    }
+
+    public PrivateCloudType getCloud() {
+        return cloud;
+    }
+
+    public TenantState getTenantState() {
+        return tenantState;
+    }
+}
@@ -17,6 +17,7 @@
 
 package io.maestro3.agent.scheduler;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.maestro3.agent.dao.LockDao;
 import io.maestro3.agent.model.base.Lock;
 import io.maestro3.agent.model.base.PrivateCloudType;
@@ -25,22 +26,53 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
 
 public abstract class AbstractScheduler implements IScheduler {
 
+    private static final long DELAYED_TRIGGER_TOLERANCE_MILLIS = 1000;
+    private static final ISchedulerRegistry DEFAULT_REGISTRY = new SchedulerRegistry();
+    private static final ScheduledExecutorService LEASE_RENEWER = Executors.newScheduledThreadPool(1,
+        new ThreadFactoryBuilder().setNameFormat("schedule-lease-renewer-%d").setDaemon(true).build());
+
     protected final Logger LOG = LoggerFactory.getLogger(getClass());
 
     private long lastExecutionStart;
     private long lastExecutionEnd;
     private PrivateCloudType privateCloudType;
     private LockDao lockDao;
+    private ISchedulerRegistry registry = DEFAULT_REGISTRY;
+    private final ReentrantLock runLock = new ReentrantLock();
+    private final AtomicInteger pendingRuns = new AtomicInteger();
+    private final AtomicLong missedRuns = new AtomicLong();
+    private volatile long lastRunEndNanos;
+    private final long periodMillis;
     private boolean lockingEnabled;
     @Value("${private.agent.lock.disabled}")
     private boolean disableAllLocks;
+    @Value("${private.agent.lock.lease.millis:60000}")
+    private long leaseMillis;
+    @Value("${private.agent.scheduler.overrun.policy:SKIP}")
+    private OverrunPolicy overrunPolicy = OverrunPolicy.SKIP;
 
     public AbstractScheduler(PrivateCloudType privateCloudType, boolean lockingEnabled) {
+        this(privateCloudType, lockingEnabled, 0);
+    }
+
+    /**
+     * @param periodMillis period the schedule is triggered with, a run longer than it is an overrun
+     */
+    public AbstractScheduler(PrivateCloudType privateCloudType, boolean lockingEnabled, long periodMillis) {
         this.privateCloudType = privateCloudType;
         this.lockingEnabled = lockingEnabled;
+        this.periodMillis = periodMillis;
     }
 
     protected void start(String msg) {
@@ -53,29 +85,152 @@ public abstract class AbstractScheduler implements IScheduler {
         this.lastExecutionEnd = System.currentTimeMillis();
     }
 
+    /**
+     * Runs the schedule and records it in the {@link ISchedulerRegistry}. A run which took longer than
+     * {@link #getPeriodMillis()} is an overrun and the next trigger is handled by {@link #getOverrunPolicy()}:
+     * a trigger delayed by the overrun, fired as soon as the run ended, is dropped by {@link OverrunPolicy#SKIP}
+     * and {@link OverrunPolicy#QUEUE} runs once more for every missed period.
+     * A trigger which finds the previous run in progress, on a multi-threaded scheduler pool, is an overrun
+     * too: it leaves its run to the running thread and returns instead of waiting.
+     */
     public void executeSchedule() {
-        if (lockingEnabled && !disableAllLocks) {
-            if (!lockDao.save(new Lock(privateCloudType.name(), getScheduleTitle()))) {
-                LOG.debug("Another scheduler already executed for cloud {}", privateCloudType);
+        String title = getScheduleTitle();
+        OverrunPolicy policy = getOverrunPolicy();
+        long missed = missedRuns.getAndSet(0);
+        int runs = 1;
+        if (missed > 0) {
+            long period = getPeriodMillis();
+            long sinceLastRun = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastRunEndNanos);
+            boolean delayed = sinceLastRun < Math.min(DELAYED_TRIGGER_TOLERANCE_MILLIS, period / 2);
+            registry.overrun(title, policy);
+            LOG.warn("Schedule {} ran longer than its period of {} ms, {} runs missed, overrun policy {}",
+                title, period, missed, policy);
+            if (delayed && policy == OverrunPolicy.SKIP) {
                 return;
             }
+            if (policy == OverrunPolicy.QUEUE) {
+                // the delayed trigger is one of the missed runs
+                runs = (int) Math.min(delayed ? missed : missed + 1, Integer.MAX_VALUE);
+            }
+        }
+        if (runLock.isLocked()) {
+            registry.overrun(title, policy);
+            LOG.warn("Schedule {} is still running, overrun policy {}", title, policy);
+            if (policy == OverrunPolicy.SKIP) {
+                return;
+            }
+        }
+        if (policy == OverrunPolicy.QUEUE) {
+            pendingRuns.addAndGet(runs);
+        } else {
+            pendingRuns.accumulateAndGet(1, Math::max);
+        }
+        // the thread holding the lock runs the pending runs, the check after unlock picks up a late request
+        while (pendingRuns.get() > 0 && runLock.tryLock()) {
+            try {
+                while (pendingRuns.getAndUpdate(pending -> Math.max(0, pending - 1)) > 0) {
+                    runTracked();
+                }
+            } finally {
+                runLock.unlock();
+            }
+        }
+    }
+
+    private void runTracked() {
+        String title = getScheduleTitle();
+        registry.runStarted(title);
+        lastExecutionStart = System.currentTimeMillis();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            if (!runSchedule()) {
+                registry.lockSkipped(title);
+            }
+            failed = false;
+        } finally {
+            long durationNanos = System.nanoTime() - start;
+            registry.runFinished(title, durationNanos, failed);
+            lastExecutionEnd = System.currentTimeMillis();
+            lastRunEndNanos = System.nanoTime();
+            long period = getPeriodMillis();
+            missedRuns.set(period > 0 ? TimeUnit.NANOSECONDS.toMillis(durationNanos) / period : 0);
         }
+    }
+
+    /**
+     * Runs the schedule under a lease lock of the cloud and schedule title. The lease is renewed in background
+     * every third of its duration while the schedule runs, so a crashed node holds the lock for one lease at most.
+     *
+     * @return {@code false} if the lock is held by another node
+     */
+    boolean runSchedule() {
+        if (!lockingEnabled || disableAllLocks) {
+            execute(0);
+            return true;
+        }
+        Lock lock = lockDao.acquire(privateCloudType, getScheduleTitle(), leaseMillis);
+        if (lock == null) {
+            LOG.debug("Another scheduler already executed for cloud {}", privateCloudType);
+            return false;
+        }
+        long renewalPeriod = Math.max(1, leaseMillis / 3);
+        ScheduledFuture<?> renewal = LEASE_RENEWER.scheduleAtFixedRate(() -> renewLease(lock),
+            renewalPeriod, renewalPeriod, TimeUnit.MILLISECONDS);
         try {
-            execute();
+            execute(lock.getFencingToken());
         } finally {
-            if (lockingEnabled && !disableAllLocks) {
-                lockDao.delete(privateCloudType, getScheduleTitle());
+            renewal.cancel(false);
+            try {
+                lockDao.release(lock);
+            } catch (Exception ex) {
+                LOG.warn("Failed to release lock {}, it expires in {} ms", lock.getId(), leaseMillis, ex);
             }
         }
+        return true;
+    }
+
+    protected OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    /**
+     * Period the schedule is triggered with, {@code 0} if unknown: only overlapping triggers are overruns then.
+     */
+    protected long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * Runs the schedule with the fencing token of its lease, {@code 0} when locking is disabled.
+     * Writes guarded by the token must be rejected when a greater token was already seen.
+     */
+    protected void execute(long fencingToken) {
+        execute();
     }
 
     protected abstract void execute();
 
+    private void renewLease(Lock lock) {
+        try {
+            if (!lockDao.renew(lock, leaseMillis)) {
+                LOG.warn("Lease of lock {} was lost, fencing token {} is stale", lock.getId(), lock.getFencingToken());
+            }
+        } catch (Exception ex) {
+            LOG.warn("Failed to renew lease of lock {}", lock.getId(), ex);
+        }
+    }
+
     @Autowired
     public void setLockDao(LockDao lockDao) {
         this.lockDao = lockDao;
     }
 
+    @Autowired(required = false)
+    public void setRegistry(ISchedulerRegistry registry) {
+        this.registry = registry;
+    }
+
     @Override
     public long getLastExecutionStart() {
         return lastExecutionStart;
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.scheduler;
+
+import io.maestro3.agent.model.base.PrivateCloudType;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Scheduler which splits its work by {@link ShardAssignment}. When sharding is enabled it runs
+ * {@link #execute(ShardAssignment)} on every replica without the lease lock, otherwise it runs like any
+ * other scheduler.
+ */
+public abstract class AbstractShardedScheduler extends AbstractScheduler {
+
+    private ClusterMembership membership;
+
+    public AbstractShardedScheduler(PrivateCloudType privateCloudType, boolean lockingEnabled) {
+        super(privateCloudType, lockingEnabled);
+    }
+
+    public AbstractShardedScheduler(PrivateCloudType privateCloudType, boolean lockingEnabled, long periodMillis) {
+        super(privateCloudType, lockingEnabled, periodMillis);
+    }
+
+    @Override
+    boolean runSchedule() {
+        if (membership == null || !membership.isEnabled()) {
+            return super.runSchedule();
+        }
+        ShardAssignment shard = membership.getAssignment();
+        if (shard.isExpired()) {
+            LOG.warn("Registration of {} in the scheduler group expired, schedule {} is skipped",
+                shard.getMemberId(), getScheduleTitle());
+            return false;
+        }
+        execute(shard);
+        return true;
+    }
+
+    /**
+     * Runs the schedule for the tenants or regions owned by this replica, see {@link ShardAssignment#filter}.
+     * During a rebalance two replicas may briefly process the same key, so the work must be idempotent;
+     * a long run checks {@link ShardAssignment#isExpired()} before its writes.
+     */
+    protected abstract void execute(ShardAssignment shard);
+
+    @Autowired(required = false)
+    public void setMembership(ClusterMembership membership) {
+        this.membership = membership;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.maestro3.agent.dao.ISchedulerMemberDao;
+import io.maestro3.agent.model.base.SchedulerMember;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps this replica registered in the scheduler group and tracks the other live replicas.
+ * <p>
+ * The registration is renewed every third of its TTL and the member list is re-read on each heartbeat,
+ * so a crashed replica leaves the group within one TTL and its shard is picked up by the others.
+ */
+@Component
+public class ClusterMembership {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterMembership.class);
+
+    private final ISchedulerMemberDao memberDao;
+    private final String memberId = ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID();
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("scheduler-membership").setDaemon(true).build());
+
+    @Value("${private.agent.scheduler.sharding.enabled:false}")
+    private boolean enabled;
+    @Value("${private.agent.scheduler.sharding.group:${private.agent.name:private-agent}}")
+    private String group;
+    @Value("${private.agent.scheduler.sharding.member.ttl.millis:30000}")
+    private long memberTtlMillis;
+
+    private volatile ShardAssignment assignment;
+
+    @Autowired
+    public ClusterMembership(ISchedulerMemberDao memberDao) {
+        this.memberDao = memberDao;
+        // expired until the first heartbeat succeeds, so nothing is owned before the group is known
+        this.assignment = new ShardAssignment(memberId, Collections.singletonList(memberId), 0);
+    }
+
+    @PostConstruct
+    public void join() {
+        if (!enabled) {
+            return;
+        }
+        long period = Math.max(1, memberTtlMillis / 3);
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void leave() {
+        heartbeatExecutor.shutdownNow();
+        if (enabled) {
+            try {
+                memberDao.leave(memberId);
+            } catch (Exception ex) {
+                LOG.warn("Failed to leave scheduler group {}", group, ex);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Current assignment. It expires with the registration of this replica, so a replica which cannot reach
+     * the database stops owning keys before the other replicas take them over.
+     */
+    public ShardAssignment getAssignment() {
+        return assignment;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    private void heartbeat() {
+        try {
+            // the registration expires a ttl after this moment for the other replicas at the latest
+            long validUntil = System.currentTimeMillis() + memberTtlMillis;
+            memberDao.heartbeat(group, memberId, memberTtlMillis);
+            List<String> members = memberDao.findActiveMembers(group).stream()
+                .map(SchedulerMember::getId)
+                .collect(Collectors.toList());
+            if (!members.contains(memberId)) {
+                members.add(memberId);
+            }
+            ShardAssignment current = assignment;
+            ShardAssignment updated = new ShardAssignment(memberId, members, validUntil);
+            if (!updated.getMembers().equals(current.getMembers())) {
+                LOG.info("Scheduler group {} rebalanced from {} to {} members", group, current.size(), updated.size());
+            }
+            assignment = updated;
+        } catch (Exception ex) {
+            LOG.warn("Failed to send heartbeat to scheduler group {}", group, ex);
+        }
+    }
+}
@@ -17,24 +17,20 @@
 
 package io.maestro3.agent.scheduler;
 
-import io.maestro3.agent.dao.IInstanceRunRecordDao;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.stereotype.Service;
+import io.maestro3.agent.model.base.SchedulerStatistic;
 
+import java.util.List;
 
-@Service
-public class InstanceRunRecodCleaner {
 
-    private IInstanceRunRecordDao recordDao;
+public interface ISchedulerRegistry {
 
-    @Autowired
-    public InstanceRunRecodCleaner(IInstanceRunRecordDao recordDao) {
-        this.recordDao = recordDao;
-    }
+    void runStarted(String scheduleTitle);
 
-    @Scheduled(cron = "0 0 * * * ?")
-    public void execute() {
-        recordDao.deleteAll();
-    }
+    void runFinished(String scheduleTitle, long durationNanos, boolean failed);
+
+    void lockSkipped(String scheduleTitle);
+
+    void overrun(String scheduleTitle, OverrunPolicy policy);
+
+    List<SchedulerStatistic> collectStatistic();
 }
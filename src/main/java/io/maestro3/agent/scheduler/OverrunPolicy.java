@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.scheduler;
+
+/**
+ * What to do when a schedule is triggered while its previous run is still in progress or after a run which
+ * took longer than the period.
+ */
+public enum OverrunPolicy {
+    /**
+     * Drop the new run, or the run delayed by the overrun.
+     */
+    SKIP,
+    /**
+     * Execute every queued run and every period missed by the overrun after the previous run.
+     */
+    QUEUE,
+    /**
+     * Execute once more after the previous run however many runs were triggered meanwhile.
+     */
+    COALESCE
+}
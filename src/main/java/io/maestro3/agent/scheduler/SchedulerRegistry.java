@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.scheduler;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import io.maestro3.agent.model.base.SchedulerStatistic;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+@Component
+public class SchedulerRegistry implements ISchedulerRegistry {
+
+    private static final double NANOS_IN_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Map<String, ScheduleMetrics> metrics = new ConcurrentHashMap<>();
+
+    @Override
+    public void runStarted(String scheduleTitle) {
+        metricsOf(scheduleTitle).running.incrementAndGet();
+    }
+
+    @Override
+    public void runFinished(String scheduleTitle, long durationNanos, boolean failed) {
+        ScheduleMetrics scheduleMetrics = metricsOf(scheduleTitle);
+        scheduleMetrics.running.decrementAndGet();
+        scheduleMetrics.durations.update(durationNanos, TimeUnit.NANOSECONDS);
+        scheduleMetrics.lastDurationNanos = durationNanos;
+        if (failed) {
+            scheduleMetrics.failures.increment();
+        }
+    }
+
+    @Override
+    public void lockSkipped(String scheduleTitle) {
+        metricsOf(scheduleTitle).lockSkips.increment();
+    }
+
+    @Override
+    public void overrun(String scheduleTitle, OverrunPolicy policy) {
+        ScheduleMetrics scheduleMetrics = metricsOf(scheduleTitle);
+        scheduleMetrics.overruns.increment();
+        switch (policy) {
+            case SKIP:
+                scheduleMetrics.skippedRuns.increment();
+                break;
+            case QUEUE:
+                scheduleMetrics.queuedRuns.increment();
+                break;
+            case COALESCE:
+                scheduleMetrics.coalescedRuns.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public List<SchedulerStatistic> collectStatistic() {
+        List<SchedulerStatistic> result = new ArrayList<>();
+        metrics.forEach((title, scheduleMetrics) -> {
+            Snapshot snapshot = scheduleMetrics.durations.getSnapshot();
+            SchedulerStatistic statistic = new SchedulerStatistic(title);
+            statistic.setRuns(scheduleMetrics.durations.getCount());
+            statistic.setFailures(scheduleMetrics.failures.sum());
+            statistic.setLockSkips(scheduleMetrics.lockSkips.sum());
+            statistic.setOverruns(scheduleMetrics.overruns.sum());
+            statistic.setSkippedRuns(scheduleMetrics.skippedRuns.sum());
+            statistic.setQueuedRuns(scheduleMetrics.queuedRuns.sum());
+            statistic.setCoalescedRuns(scheduleMetrics.coalescedRuns.sum());
+            statistic.setRunning(scheduleMetrics.running.get() > 0);
+            statistic.setLastDurationMillis(scheduleMetrics.lastDurationNanos / NANOS_IN_MILLI);
+            statistic.setMeanDurationMillis(snapshot.getMean() / NANOS_IN_MILLI);
+            statistic.setP95DurationMillis(snapshot.get95thPercentile() / NANOS_IN_MILLI);
+            statistic.setP99DurationMillis(snapshot.get99thPercentile() / NANOS_IN_MILLI);
+            statistic.setMaxDurationMillis(snapshot.getMax() / NANOS_IN_MILLI);
+            result.add(statistic);
+        });
+        return result;
+    }
+
+    private ScheduleMetrics metricsOf(String scheduleTitle) {
+        return metrics.computeIfAbsent(scheduleTitle, k -> new ScheduleMetrics());
+    }
+
+    private static class ScheduleMetrics {
+        private final Timer durations = new Timer();
+        private final AtomicInteger running = new AtomicInteger();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder lockSkips = new LongAdder();
+        private final LongAdder overruns = new LongAdder();
+        private final LongAdder skippedRuns = new LongAdder();
+        private final LongAdder queuedRuns = new LongAdder();
+        private final LongAdder coalescedRuns = new LongAdder();
+        private volatile long lastDurationNanos;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.scheduler;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Immutable snapshot of the replicas sharing the scheduled work.
+ * <p>
+ * Keys are assigned by rendezvous (highest random weight) hashing: every member scores the key and the member
+ * with the highest score owns it. When a member joins or leaves, only the keys it wins or owned move.
+ * <p>
+ * The assignment is valid while the registration of the member is, a member whose registration expired
+ * owns nothing: the other members take its keys over once they see the registration expired.
+ */
+public final class ShardAssignment {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String memberId;
+    private final List<String> members;
+    private final long validUntilMillis;
+
+    public ShardAssignment(String memberId, Collection<String> members, long validUntilMillis) {
+        Assert.hasText(memberId, "memberId can't be null or empty.");
+        Assert.notEmpty(members, "members can't be null or empty.");
+        this.memberId = memberId;
+        List<String> sortedMembers = new ArrayList<>(members);
+        Collections.sort(sortedMembers);
+        this.members = Collections.unmodifiableList(sortedMembers);
+        this.validUntilMillis = validUntilMillis;
+    }
+
+    public boolean owns(String key) {
+        return !isExpired() && memberId.equals(ownerOf(key));
+    }
+
+    /**
+     * Long runs check it before each write, the keys may belong to another member already.
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= validUntilMillis;
+    }
+
+    public String ownerOf(String key) {
+        String owner = null;
+        long bestScore = Long.MIN_VALUE;
+        for (String member : members) {
+            long score = HASH.newHasher()
+                .putString(member, StandardCharsets.UTF_8)
+                .putChar('\0')
+                .putString(key, StandardCharsets.UTF_8)
+                .hash()
+                .asLong();
+            if (owner == null || score > bestScore) {
+                owner = member;
+                bestScore = score;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Items of this member's shard.
+     */
+    public <T> List<T> filter(Collection<T> items, Function<T, String> keyFunction) {
+        List<T> result = new ArrayList<>();
+        for (T item : items) {
+            if (owns(keyFunction.apply(item))) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    public int size() {
+        return members.size();
+    }
+}
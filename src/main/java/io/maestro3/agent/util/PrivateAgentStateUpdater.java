@@ -20,11 +20,13 @@ package io.maestro3.agent.util;
 import io.maestro3.agent.cadf.ICadfAuditEventSender;
 import io.maestro3.agent.dao.IRegionRepository;
 import io.maestro3.agent.dao.ITenantRepository;
-import io.maestro3.agent.model.base.IRegion;
 import io.maestro3.agent.model.base.ITenant;
 import io.maestro3.agent.model.base.PrivateCloudType;
+import io.maestro3.agent.model.base.RegionView;
+import io.maestro3.agent.model.base.TenantView;
 import io.maestro3.agent.util.conversion.tenant.BaseTenantInfoConverter;
 import io.maestro3.agent.util.conversion.tenant.TenantInfoConverter;
+import io.maestro3.agent.util.conversion.tenant.TenantViewInfoConverter;
 import io.maestro3.cadf.ICadfAction;
 import io.maestro3.cadf.model.CadfActions;
 import io.maestro3.cadf.model.CadfAttachment;
@@ -33,7 +35,6 @@ import io.maestro3.cadf.model.CadfEventType;
 import io.maestro3.cadf.model.CadfOutcomes;
 import io.maestro3.cadf.model.CadfResource;
 import io.maestro3.cadf.model.CadfResourceTypes;
-import io.maestro3.sdk.internal.util.CollectionUtils;
 import io.maestro3.sdk.internal.util.DateUtils;
 import io.maestro3.sdk.internal.util.JsonUtils;
 import io.maestro3.sdk.v3.model.audit.AuditEventGroupType;
@@ -47,9 +48,11 @@ import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -135,37 +138,61 @@ public class PrivateAgentStateUpdater implements IPrivateAgentStateUpdater {
 
     @Override
     public Map<PrivateCloudType, List<Map<String, Object>>> getState() {
-        List<IRegion> regions = regionRepository.findAll();
-        Map<String, List<ITenant>> tenants = ((List<ITenant>) tenantRepository.findAll()).stream()
-                .collect(Collectors.groupingBy(ITenant::getRegionId));
+        List<RegionView> regions = regionRepository.findAllViews();
+        Map<String, List<Map<String, Object>>> tenantInfos = getTenantInfosByRegionId();
         Map<PrivateCloudType, List<Map<String, Object>>> result = new HashMap<>();
-        for (IRegion region : regions) {
+        for (RegionView region : regions) {
             List<Map<String, Object>> regionInfos = result.computeIfAbsent(region.getCloud(), (cloudType) -> new ArrayList<>());
-            Map<String, Object> info = buildRegionInfo(region, tenants);
+            Map<String, Object> info = buildRegionInfo(region, tenantInfos);
             regionInfos.add(info);
         }
         return result;
     }
 
-    private Map<String, Object> buildRegionInfo(IRegion region, Map<String, List<ITenant>> tenants) {
+    /**
+     * Tenants of the clouds whose converter reads the {@link TenantView} projection are loaded as views,
+     * the others are loaded in full for their converter.
+     */
+    private Map<String, List<Map<String, Object>>> getTenantInfosByRegionId() {
+        Set<PrivateCloudType> fullTenantClouds = EnumSet.noneOf(PrivateCloudType.class);
+        for (PrivateCloudType cloud : PrivateCloudType.values()) {
+            if (!(getTenantInfoConverter(cloud) instanceof TenantViewInfoConverter)) {
+                fullTenantClouds.add(cloud);
+            }
+        }
+        Map<String, List<Map<String, Object>>> result = new HashMap<>();
+        for (TenantView tenant : tenantRepository.findViewsExcludingClouds(fullTenantClouds)) {
+            TenantViewInfoConverter<?> converter = (TenantViewInfoConverter<?>) getTenantInfoConverter(tenant.getCloud());
+            addTenantInfo(result, tenant.getRegionId(), converter.getTenantInfo(tenant));
+        }
+        for (PrivateCloudType cloud : fullTenantClouds) {
+            for (ITenant tenant : (List<ITenant>) tenantRepository.findForCloud(cloud.name())) {
+                addTenantInfo(result, tenant.getRegionId(), getTenantInfoConverter(cloud).getTenantInfo(tenant));
+            }
+        }
+        return result;
+    }
+
+    private void addTenantInfo(Map<String, List<Map<String, Object>>> tenantInfos, String regionId,
+                               Map<String, Object> tenantInfo) {
+        if (regionId != null) {
+            tenantInfos.computeIfAbsent(regionId, (id) -> new ArrayList<>()).add(tenantInfo);
+        }
+    }
+
+    private Map<String, Object> buildRegionInfo(RegionView region, Map<String, List<Map<String, Object>>> tenantInfos) {
         Map<String, Object> regionInfo = new HashMap<>();
         regionInfo.put(ACTIVATION_DATE, convertToTimestampFrom(region.getId()));
         regionInfo.put(REGION_NAME, region.getRegionAlias());
         regionInfo.put(STATUS, region.isManagementAvailable() ? "AVAILABLE" : "READ_ONLY");
-        List<Map<String, Object>> relatedTenantsInfo = new ArrayList<>();
-        List<ITenant> regionTenants = tenants.get(region.getId());
-        if (CollectionUtils.isNotEmpty(regionTenants)) {
-            for (ITenant regionTenant : regionTenants) {
-                TenantInfoConverter<?> converter = tenantInfoConverters.getOrDefault(regionTenant.getCloud(),
-                        DEFAULT_TENANT_INFO_CONVERTER);
-                Map<String, Object> data = converter.getTenantInfo(regionTenant);
-                relatedTenantsInfo.add(data);
-            }
-        }
-        regionInfo.put(RELATED_TENANTS, relatedTenantsInfo);
+        regionInfo.put(RELATED_TENANTS, tenantInfos.getOrDefault(region.getId(), new ArrayList<>()));
         return regionInfo;
     }
 
+    private TenantInfoConverter<?> getTenantInfoConverter(PrivateCloudType cloud) {
+        return tenantInfoConverters.getOrDefault(cloud, DEFAULT_TENANT_INFO_CONVERTER);
+    }
+
     public static long convertToTimestampFrom(String objectId) {
         return Long.parseLong(objectId.substring(0, 8), 16) * 1000;
     }
@@ -2,12 +2,14 @@ package io.maestro3.agent.util.conversion.tenant;
 
 import io.maestro3.agent.model.base.ITenant;
 import io.maestro3.agent.model.base.PrivateCloudType;
+import io.maestro3.agent.model.base.TenantState;
+import io.maestro3.agent.model.base.TenantView;
 import io.maestro3.agent.util.PrivateAgentStateUpdater;
 
 import java.util.HashMap;
 import java.util.Map;
 
-public class BaseTenantInfoConverter implements TenantInfoConverter<ITenant> {
+public class BaseTenantInfoConverter implements TenantViewInfoConverter<ITenant> {
 
     private static final String ACTIVATION_DATE = "activationDate";
     private static final String STATUS = "status";
@@ -16,11 +18,12 @@ public class BaseTenantInfoConverter implements TenantInfoConverter<ITenant> {
 
     @Override
     public Map<String, Object> getTenantInfo(ITenant tenant) {
-        Map<String, Object> data = new HashMap<>();
-        data.put(TENANT_NAME, tenant.getTenantAlias());
-        data.put(ACTIVATION_DATE, PrivateAgentStateUpdater.convertToTimestampFrom(tenant.getId()));
-        data.put(STATUS, tenant.getTenantState());
-        return data;
+        return getTenantInfo(tenant.getId(), tenant.getTenantAlias(), tenant.getTenantState());
+    }
+
+    @Override
+    public Map<String, Object> getTenantInfo(TenantView tenant) {
+        return getTenantInfo(tenant.getId(), tenant.getTenantAlias(), tenant.getTenantState());
     }
 
     @Override
@@ -37,4 +40,12 @@ public class BaseTenantInfoConverter implements TenantInfoConverter<ITenant> {
     public PrivateCloudType getPrivateCloudType() {
         return null;
     }
+
+    private Map<String, Object> getTenantInfo(String id, String tenantAlias, TenantState tenantState) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(TENANT_NAME, tenantAlias);
+        data.put(ACTIVATION_DATE, PrivateAgentStateUpdater.convertToTimestampFrom(id));
+        data.put(STATUS, tenantState);
+        return data;
+    }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2023 Maestro Cloud Control LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.maestro3.agent.util.conversion.tenant;
+
+import io.maestro3.agent.model.base.ITenant;
+import io.maestro3.agent.model.base.TenantView;
+
+import java.util.Map;
+
+/**
+ * Converter which builds the tenant info from the {@link TenantView} projection, so the heartbeat state
+ * does not load the full tenants of its cloud.
+ */
+public interface TenantViewInfoConverter<T extends ITenant> extends TenantInfoConverter<T> {
+
+    Map<String, Object> getTenantInfo(TenantView tenant);
+}